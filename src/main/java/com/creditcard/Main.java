@@ -1,18 +1,40 @@
 package com.creditcard;
 
+import com.creditcard.application.datahandler.BinCache;
+import com.creditcard.application.datahandler.CardStorage;
 import com.creditcard.application.datahandler.CoolTempDatabase;
+import com.creditcard.application.datahandler.Durability;
+import com.creditcard.application.datahandler.JsonCodec;
+import com.creditcard.application.datahandler.MappedCardStorage;
+import com.creditcard.application.datahandler.PackedCardStorage;
+import com.creditcard.application.datahandler.Snapshotter;
+import com.creditcard.application.datahandler.WriteAheadLog;
 import com.creditcard.application.models.cards.CountryList;
-import com.creditcard.application.models.cards.CreditCard;
+import com.creditcard.application.models.responses.BatchResponse;
+import com.creditcard.application.models.responses.CardResult;
 import com.creditcard.application.models.responses.ResponseError;
+import com.creditcard.application.modules.BinProvider;
+import com.creditcard.application.modules.CircuitBreaker;
 import com.creditcard.application.modules.CreditCardModule;
 import com.creditcard.application.modules.ErrorHandler;
 import com.creditcard.application.modules.FileModule;
+import com.creditcard.application.modules.HttpBinProvider;
+import com.creditcard.application.modules.LocalBinProvider;
+import com.creditcard.application.modules.Metrics;
+import com.creditcard.application.modules.ResponseCache;
+import com.creditcard.application.modules.RouteTimer;
+import com.creditcard.application.modules.VirtualThreadPool;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.UUID;
 
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static com.creditcard.application.modules.RouteTimer.timed;
 import static spark.Spark.*;
 
 /**
@@ -25,101 +47,250 @@ public class Main {
         final ErrorHandler errorHandler = new ErrorHandler();
 
         try {
+            // The cards are kept on the heap by default, or outside it in memory mapped files for large portfolios
+            final Path storeDir               = Path.of(System.getProperty("cards.storeDir", "src/main/resources/store"));
+            final CardStorage.Factory storage = "mapped".equalsIgnoreCase(System.getProperty("cards.storage"))
+                    ? expectedCards -> new MappedCardStorage(storeDir, expectedCards)
+                    : PackedCardStorage::new;
+
             // Initialise core modules
-            final FileModule fileModule     = new FileModule();
-            final CoolTempDatabase database = new CoolTempDatabase(fileModule);
-            final CreditCardModule module   = new CreditCardModule(database);
+            final FileModule fileModule     = new FileModule(
+                    Integer.getInteger("cards.loadThreads", Runtime.getRuntime().availableProcessors())
+            );
+            final CoolTempDatabase database = new CoolTempDatabase(fileModule, storage);
+            final BinCache binCache         = new BinCache(
+                    Integer.getInteger("bin.cacheSize", 10_000),
+                    Long.getLong("bin.cacheTtlMillis", 24 * 60 * 60 * 1000L),
+                    Long.getLong("bin.negativeTtlMillis", 10 * 60 * 1000L)
+            );
+            final String binFile            = System.getProperty("bin.file", "bin-ranges.csv");
+            final CircuitBreaker breaker    = new CircuitBreaker(
+                    Integer.getInteger("bin.breakerFailures", 5),
+                    Long.getLong("bin.breakerOpenMillis", 30_000)
+            );
+            final BinProvider binProvider   = "local".equalsIgnoreCase(System.getProperty("bin.provider"))
+                    ? LocalBinProvider.load(Path.of("src/main/resources", binFile))
+                    : new HttpBinProvider(
+                            System.getProperty("bin.url", HttpBinProvider.DEFAULT_URL),
+                            Duration.ofMillis(Long.getLong("bin.connectTimeoutMillis", 2000)),
+                            Duration.ofMillis(Long.getLong("bin.requestTimeoutMillis", 3000)),
+                            breaker
+                    );
+            final CreditCardModule module   = new CreditCardModule(database, binCache, binProvider);
+            final ResponseCache responses   = new ResponseCache(
+                    database,
+                    Integer.getInteger("http.cacheCards", 10_000)
+            );
+
+            // Open the log that the accepted cards are appended to
+            final Durability durability = Durability.valueOf(
+                    System.getProperty("cards.durability", Durability.BATCH.name()).toUpperCase()
+            );
+            final long syncInterval     = Long.getLong("cards.syncIntervalMillis", 1000);
+            final WriteAheadLog cardLog = fileModule.openLog(durability, syncInterval);
+            database.attachLog(cardLog);
+
+            // Periodically replace the log with a snapshot, so it does not have to be replayed in full at startup
+            final Snapshotter snapshotter = new Snapshotter(database, fileModule, cardLog,
+                    Long.getLong("cards.snapshotEveryRecords", 100_000),
+                    Long.getLong("cards.snapshotIntervalMillis", 600_000)
+            );
+            snapshotter.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                snapshotter.close();
+                try {
+                    cardLog.close();
+                } catch (IOException ex) {
+                    System.out.println("[ERROR] - Could not close the card log. " + ex);
+                }
+                try {
+                    database.close();
+                } catch (IOException ex) {
+                    System.out.println("[ERROR] - Could not close the card storage. " + ex);
+                }
+            }));
+
+            // Optionally serve every request on its own virtual thread instead of the bounded Jetty thread pool
+            if (Boolean.getBoolean("server.virtualThreads")) {
+                EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY,
+                        new EmbeddedJettyFactory().withThreadPool(new VirtualThreadPool()));
+                System.out.println("[INFO] - Serving requests on virtual threads");
+            }
+
+            // Expose the state of the modules, along with the counts that they already keep themselves
+            Metrics.gauge("cards", "The number of cards that have been accepted", database::getCardCount);
+            Metrics.gauge("banned_countries", "The number of countries that are banned",
+                    () -> database.getBannedCountries().size());
+            Metrics.gauge("card_details", "The number of distinct card details that the cards share",
+                    database::getDetailsCount);
+            Metrics.gauge("cards_load_millis", "The time it took to load the cards at startup",
+                    fileModule::getLoadMillis);
+            Metrics.gauge("bin_cache_entries", "The number of BINs whose card details are cached", binCache::size);
+            Metrics.counter("bin_cache_hits_total", "The BINs that were found in the cache", binCache::getHits);
+            Metrics.counter("bin_cache_misses_total", "The BINs that had to be looked up", binCache::getMisses);
+            Metrics.counter("bin_cache_evictions_total", "The BINs that were evicted from the cache",
+                    binCache::getEvictions);
+            Metrics.gauge("bin_breaker_state", "The state of the BIN lookup circuit breaker, 0 is closed, 1 is open "
+                    + "and 2 is half open", () -> breaker.getState().ordinal());
+            Metrics.counter("bin_breaker_rejected_total", "The BIN lookups that the circuit breaker refused",
+                    breaker::getRejectedCalls);
+            Metrics.gauge("response_cache_cards", "The number of card responses that are cached", responses::size);
+            Metrics.counter("response_cache_hits_total", "The responses that were served from the cache",
+                    responses::getHits);
+            Metrics.counter("response_cache_misses_total", "The responses that had to be built",
+                    responses::getMisses);
+            Metrics.counter("response_cache_not_modified_total", "The responses that were answered with a 304",
+                    responses::getNotModified);
+            Metrics.counter("log_records_total", "The records that have been written to the log",
+                    cardLog::getWrittenRecords);
+            Metrics.counter("snapshots_total", "The snapshots that have been taken", snapshotter::getSnapshots);
+            Metrics.gauge("snapshot_last_bytes", "The size of the last snapshot that was written",
+                    snapshotter::getLastSnapshotBytes);
+            Metrics.gauge("snapshot_last_seconds", "The time the last snapshot took, from rolling the log to deleting "
+                    + "the old segments", () -> snapshotter.getLastSnapshotMillis() / 1000.0);
+
+            // Time every request by the route that handled it
+            RouteTimer.install();
+
+            // The metrics of the application in the Prometheus text format
+            get("/metrics", timed((request, response) -> {
+                response.type("text/plain; version=0.0.4; charset=utf-8");
+                return Metrics.write();
+            }));
 
             // All the routes that can be accessed
             path("/api/v1", () -> {
                 path("/cards", () -> {
                     // Insert a credit card if the validation passes
-                    post("/", (request, response) -> {
+                    post("/", timed((request, response) -> {
                         response.type("application/json");
                         try {
-                            CreditCard creditCard = module.insertCreditCard(request);
-                            String json           = database.dataToJson(creditCard);
+                            CardResult result = module.insertCreditCard(request);
+                            if (!result.isAccepted()) {
+                                // The errors of rejected cards never change, so they were serialised up front
+                                response.status(errorHandler.handleRejection(result.getRejection()).getStatusCode());
+                                return errorHandler.rejectionJson(result.getRejection());
+                            }
+                            String json = JsonCodec.toJson(result.getCard());
                             response.status(SC_OK);
-                            fileModule.save(json + "~", "cards.txt", true);
                             return json;
                         } catch (Exception ex) {
                             ResponseError error = errorHandler.handleException(ex);
                             response.status(error.getStatusCode());
-                            return database.dataToJson(error);
+                            return JsonCodec.toJson(error);
                         }
-                    });
+                    }));
 
-                    // Get all the existing credit cards
-                    get("/", (request, response) -> {
+                    // Import a batch of credit cards, with the result of every card
+                    post("/batch", timed((request, response) -> {
                         response.type("application/json");
                         try {
-                            List<CreditCard> fetchedCards = database.getAllCards();
+                            BatchResponse result = module.insertCreditCards(request);
                             response.status(SC_OK);
-                            return database.dataToJson(fetchedCards);
+                            return JsonCodec.toJson(result);
                         } catch (Exception ex) {
                             ResponseError error = errorHandler.handleException(ex);
                             response.status(error.getStatusCode());
-                            return database.dataToJson(error);
+                            return JsonCodec.toJson(error);
                         }
-                    });
+                    }));
+
+                    // Stream the existing credit cards, or a page of them when a limit is provided
+                    get("/", timed((request, response) -> {
+                        response.type("application/json");
+                        CreditCardModule.CardQuery query;
+                        try {
+                            query = module.queryCards(request);
+                        } catch (Exception ex) {
+                            ResponseError error = errorHandler.handleException(ex);
+                            response.status(error.getStatusCode());
+                            return JsonCodec.toJson(error);
+                        }
+
+                        // Once the first cards are sent, the status can no longer be changed to an error
+                        response.status(SC_OK);
+                        try {
+                            module.writeCards(query, response.raw().getOutputStream());
+                        } catch (Exception ex) {
+                            errorHandler.abortResponse(request, ex);
+                        }
+                        return "";
+                    }));
 
                     // Get the credit card with the specified id
-                    get("/:id", (request, response) -> {
+                    get("/:id", timed((request, response) -> {
                         response.type("application/json");
                         try {
-                            CreditCard card = database.getCardById(UUID.fromString(request.params(":id")));
-                            response.status(SC_OK);
-                            return database.dataToJson(card);
+                            UUID id                 = UUID.fromString(request.params(":id"));
+                            ResponseCache.Body card = responses.card(id);
+                            if (card == null) {
+                                ResponseError error = errorHandler.notFound(id.toString());
+                                response.status(error.getStatusCode());
+                                return JsonCodec.toJson(error);
+                            }
+                            return responses.send(request, response, card);
                         } catch (Exception ex) {
                             ResponseError error = errorHandler.handleException(ex);
                             response.status(error.getStatusCode());
-                            return database.dataToJson(error);
+                            return JsonCodec.toJson(error);
                         }
-                    });
+                    }));
                 });
                 path("/countries", () -> {
+                    // Retrieves the number of cards that were issued in each country
+                    get("/", timed((request, response) -> {
+                        response.type("application/json");
+                        return responses.send(request, response, responses.countryCardCounts());
+                    }));
+
                     path("/ban", () -> {
                         // Bans a new county or list of countries
-                        post("/", (request, response) -> {
+                        post("/", timed((request, response) -> {
                             response.type("application/json");
                             response.status(SC_BAD_REQUEST);
                             try {
                                 response.status(SC_OK);
                                 CountryList countryList = module.banCountry(request);
-                                String json             = database.dataToJson(countryList);
-                                fileModule.saveCountries(countryList.getCountries(), true);
+                                String json             = JsonCodec.toJson(countryList);
                                 return String.format("{\"banned\":%s}", json);
                             } catch (Exception ex) {
                                 ResponseError error = errorHandler.handleException(ex);
                                 response.status(error.getStatusCode());
-                                return database.dataToJson(error);
+                                return JsonCodec.toJson(error);
                             }
-                        });
+                        }));
 
                         // Retrieves the list of banned countries
-                        get("/", (request, response) -> {
+                        get("/", timed((request, response) -> {
                             response.type("application/json");
-                            return  String.format("{\"banned\":%s}", database.dataToJson(database.getBannedCountries())
-                            );
-                        });
+                            return responses.send(request, response, responses.bannedCountries());
+                        }));
                     });
                     // Unbans a country
-                    post("/unban", (request, response) -> {
+                    post("/unban", timed((request, response) -> {
                         response.type("application/json");
                         response.status(SC_BAD_REQUEST);
                         try {
                             response.status(SC_OK);
                             CountryList unbanned = module.unbanCountry(request);
-                            fileModule.saveCountries(database.getBannedCountries(), false);
-                            return String.format("{\"unbanned\":%s}", database.dataToJson(unbanned));
+                            return String.format("{\"unbanned\":%s}", JsonCodec.toJson(unbanned));
                         } catch (Exception ex) {
                             ResponseError error = errorHandler.handleException(ex);
                             response.status(error.getStatusCode());
-                            return database.dataToJson(error);
+                            return JsonCodec.toJson(error);
                         }
-                    });
+                    }));
                 });
             });
+
+            // Warm the BIN cache from the stored cards once the server is up, so a large store does not hold up the
+            // start. Only the first cards are looked at, and the lookups of the requests fill the cache meanwhile.
+            awaitInitialization();
+            final Thread warmer = new Thread(() -> System.out.println("[INFO] - Warmed the BIN cache with "
+                    + binCache.warm(database.getCards(), Integer.getInteger("bin.warmCards", 100_000)) + " BINs"),
+                    "bin-cache-warmer");
+            warmer.setDaemon(true);
+            warmer.start();
         } catch (Exception ex) {
             ex.printStackTrace();
             //TODO: Implement logger
@@ -0,0 +1,181 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.CreditCard;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the card details for every BIN, which is the prefix of the card number that identifies the bank.
+ * The details of a BIN barely ever change, so they are kept for a while instead of being looked up for every card.
+ * <p>
+ * The least recently used BIN is evicted once the cache is full, and every entry expires after its time to live. BINs
+ * that the lookup does not know about are cached as well, but for a shorter time, so they do not hit the lookup every
+ * time either.
+ */
+public class BinCache {
+
+    // The number of digits of the card number that are used for the lookup
+    public static final int BIN_DIGITS = 9;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    // Kept in access order, so the eldest entry is the least recently used one. Guarded by its own lock.
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final LongAdder hits      = new LongAdder();
+    private final LongAdder misses    = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * The details of a BIN, which are null if the BIN is unknown, and when they expire
+     */
+    private record Entry(CardResponse details, long expiresAt) {
+    }
+
+    /**
+     * Creates an empty cache
+     *
+     * @param maxEntries        The most BINs that are kept before the least recently used one is evicted
+     * @param ttlMillis         How long the details of a BIN are kept
+     * @param negativeTtlMillis How long an unknown BIN is remembered
+     */
+    public BinCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this.maxEntries        = maxEntries;
+        this.ttlMillis         = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.entries           = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > BinCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Fetches the BIN of the card number
+     *
+     * @param cardNumber The card number without any whitespace
+     * @return The first digits of the card number
+     */
+    public static String binOf(String cardNumber) {
+        return cardNumber.substring(0, BIN_DIGITS);
+    }
+
+    /**
+     * Fetches the details of the BIN from the cache, or looks them up and caches them if they are missing or expired.
+     * The lookup is done without holding the lock of the cache, so a slow lookup does not hold up the other BINs.
+     *
+     * @param bin    The BIN to fetch the details for
+     * @param lookup Looks up the details of the BIN, returning null if the BIN is unknown
+     * @return The details of the BIN, or null if the BIN is unknown
+     * @throws Exception Any errors of the lookup, which are not cached
+     */
+    public CardResponse get(String bin, Callable<CardResponse> lookup) throws Exception {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(bin);
+            if (entry != null && entry.expiresAt() > now) {
+                hits.increment();
+                return entry.details();
+            }
+        }
+        misses.increment();
+
+        CardResponse details = lookup.call();
+        put(bin, details);
+        return details;
+    }
+
+    /**
+     * Caches the details of the BIN
+     *
+     * @param bin     The BIN
+     * @param details The details of the BIN, or null if the BIN is unknown
+     */
+    public void put(String bin, CardResponse details) {
+        long expiresAt = System.currentTimeMillis() + (details == null ? negativeTtlMillis : ttlMillis);
+        synchronized (entries) {
+            entries.put(bin, new Entry(details, expiresAt));
+        }
+    }
+
+    /**
+     * Fills the cache with the details of the cards that were already accepted, which were looked up when they were
+     * inserted. Nothing is evicted for this, so only the first BINs are kept if there are more than fit, and the BINs
+     * that were cached in the meantime are left as they are. At most maxCards cards are looked at, so a large store is
+     * not walked in full, and the lock is only held for one card at a time, so the lookups are not held up meanwhile.
+     *
+     * @param cards    The CreditCards that were loaded
+     * @param maxCards The most cards that are looked at
+     * @return The number of BINs that were added to the cache
+     */
+    public int warm(Iterable<CreditCard> cards, int maxCards) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        int added      = 0;
+        int seen       = 0;
+        for (CreditCard card : cards) {
+            if (seen++ >= maxCards || size() >= maxEntries) {
+                break;
+            }
+            String number = CoolTempDatabase.normaliseCardNumber(card.getCardNumber());
+            if (card.getDetails() == null || number.length() < BIN_DIGITS) {
+                continue;
+            }
+            synchronized (entries) {
+                if (entries.size() < maxEntries
+                        && entries.putIfAbsent(binOf(number), new Entry(card.getDetails(), expiresAt)) == null) {
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * The number of BINs in the cache, including the ones that have expired but were not replaced yet
+     *
+     * @return The number of BINs
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * The number of lookups that were answered by the cache, including the unknown BINs
+     *
+     * @return The number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of lookups that were missing or expired and had to be looked up
+     *
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of BINs that were evicted because the cache was full
+     *
+     * @return The number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
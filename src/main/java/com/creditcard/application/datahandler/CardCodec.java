@@ -0,0 +1,421 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.BanDelta;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.cards.CreditCard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Encodes and decodes the records of the binary cards file.
+ * <p>
+ * The file starts with a header of the magic bytes and the format version. Every record after that is framed as the
+ * length of the payload, the CRC32C checksum of the payload and then the payload itself. The first byte of the payload
+ * is the type of the record. A record that is cut short or does not match its checksum at the end of the file is a
+ * torn write.
+ * <p>
+ * Since version 2 the card details are written once per file as a details record, keyed by a hash of their content,
+ * and the cards only refer to that key. Every file has the details of all its cards, so the older files can be deleted
+ * without losing any details. The cards of version 1, which have their details inline, can still be read.
+ */
+public final class CardCodec {
+
+    public static final byte[] MAGIC  = {'C', 'C', 'D', 'B'};
+    public static final short VERSION = 2;
+
+    // The oldest version that can still be read
+    public static final short MIN_VERSION = 1;
+
+    // The magic bytes, the version and two reserved bytes
+    public static final int HEADER_BYTES = 8;
+
+    // The length and the checksum in front of every payload
+    public static final int FRAME_BYTES = 8;
+
+    // Any payload larger than this can only be the result of a corrupted length
+    public static final int MAX_PAYLOAD_BYTES = 1 << 20;
+
+    public static final byte TYPE_CARD  = 1;
+    public static final byte TYPE_BAN   = 2;
+    public static final byte TYPE_UNBAN = 3;
+    public static final byte TYPE_DETAILS  = 4;
+    public static final byte TYPE_CARD_REF = 5;
+
+    // The key of a card that has no details
+    public static final long NO_DETAILS = 0;
+
+    // The tags for the values of the details number map, which can hold any json value
+    private static final byte VALUE_NULL    = 0;
+    private static final byte VALUE_STRING  = 1;
+    private static final byte VALUE_LONG    = 2;
+    private static final byte VALUE_BOOLEAN = 3;
+    private static final byte VALUE_DOUBLE  = 4;
+
+    private CardCodec() {
+    }
+
+    /**
+     * Creates the header that every cards file starts with
+     *
+     * @return The header bytes
+     */
+    public static byte[] header() {
+        return ByteBuffer.allocate(HEADER_BYTES).put(MAGIC).putShort(VERSION).putShort((short) 0).array();
+    }
+
+    /**
+     * Checks that the header is from a cards file with a version that can be read
+     *
+     * @param header The first bytes of the file
+     * @throws IOException If the header does not belong to a supported cards file
+     */
+    public static void checkHeader(ByteBuffer header) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("The file is not a cards file.");
+        }
+        short version = header.getShort();
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IOException("Unsupported cards file version " + version + ".");
+        }
+        header.getShort();
+    }
+
+    /**
+     * Calculates the checksum of the payload
+     *
+     * @param payload The buffer positioned at the start of the payload
+     * @param length  The length of the payload
+     * @return The CRC32C checksum
+     */
+    public static int checksum(ByteBuffer payload, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.slice(payload.position(), length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A card that was decoded along with the key of its details, which still have to be looked up if it has one
+     *
+     * @param card       The decoded CreditCard
+     * @param detailsKey The key of the details of the card, or NO_DETAILS if they were inline or the card has none
+     */
+    public record CardReference(CreditCard card, long detailsKey) {
+    }
+
+    /**
+     * Encodes the CreditCard as a framed record that refers to its details by their key. The details have to be
+     * written to the same file with encodeDetails.
+     *
+     * @param card       The CreditCard to be encoded
+     * @param detailsKey The key of the details of the card, from detailsKey
+     * @return The length, checksum and payload of the record
+     */
+    public static byte[] encode(CreditCard card, long detailsKey) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+            DataOutputStream out        = new DataOutputStream(bytes);
+            out.writeByte(TYPE_CARD_REF);
+            out.writeLong(card.getId().getMostSignificantBits());
+            out.writeLong(card.getId().getLeastSignificantBits());
+            out.writeBoolean(Boolean.TRUE.equals(card.getIsBanned()));
+            writeString(out, card.getCardNumber());
+            writeString(out, card.getCardHolder());
+            out.writeLong(detailsKey);
+            return frame(bytes.toByteArray());
+        } catch (IOException ex) {
+            // Writing to an in memory stream does not fail
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Decodes a CreditCard from the payload of a card record, which either has its details inline or refers to them
+     *
+     * @param type    The type of the record
+     * @param payload The buffer positioned just after the type of the record
+     * @return The decoded CreditCard along with the key of its details
+     */
+    public static CardReference decodeCard(byte type, ByteBuffer payload) {
+        CreditCard card = new CreditCard();
+        card.setId(new UUID(payload.getLong(), payload.getLong()));
+        card.setIsBanned(payload.get() != 0);
+        card.setCardNumber(readString(payload));
+        card.setCardHolder(readString(payload));
+        if (type == TYPE_CARD) {
+            card.setDetails(readDetails(payload));
+            return new CardReference(card, NO_DETAILS);
+        }
+        return new CardReference(card, payload.getLong());
+    }
+
+    /**
+     * Encodes the card details as a framed record, which the cards in the same file refer to by its key
+     *
+     * @param key     The key of the details, from detailsKey
+     * @param details The card details
+     * @return The length, checksum and payload of the record
+     */
+    public static byte[] encodeDetails(long key, CardResponse details) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out        = new DataOutputStream(bytes);
+            out.writeByte(TYPE_DETAILS);
+            out.writeLong(key);
+            writeDetails(out, details);
+            return frame(bytes.toByteArray());
+        } catch (IOException ex) {
+            // Writing to an in memory stream does not fail
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Decodes the key of the card details from the payload of a details record
+     *
+     * @param payload The buffer positioned just after the type of the record, which is left just after the key
+     * @return The key of the details
+     */
+    public static long decodeDetailsKey(ByteBuffer payload) {
+        return payload.getLong();
+    }
+
+    /**
+     * Decodes the card details from the payload of a details record
+     *
+     * @param payload The buffer positioned just after the key of the details
+     * @return The card details
+     */
+    public static CardResponse decodeDetails(ByteBuffer payload) {
+        return readDetails(payload);
+    }
+
+    /**
+     * Works out the key of the card details, which is the 64 bit FNV-1a hash of their encoded form. Equal details
+     * always have the same key, in every file and after every restart.
+     *
+     * @param details The card details
+     * @return The key of the details, or NO_DETAILS if there are none
+     */
+    public static long detailsKey(CardResponse details) {
+        if (details == null) {
+            return NO_DETAILS;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            writeDetails(new DataOutputStream(bytes), details);
+        } catch (IOException ex) {
+            // Writing to an in memory stream does not fail
+            throw new UncheckedIOException(ex);
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes.toByteArray()) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == NO_DETAILS ? 1 : hash;
+    }
+
+    /**
+     * Encodes the change to the banned countries as a framed record
+     *
+     * @param delta The country that was (un)banned
+     * @return The length, checksum and payload of the record
+     */
+    public static byte[] encode(BanDelta delta) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream out        = new DataOutputStream(bytes);
+            out.writeByte(delta.isBanned() ? TYPE_BAN : TYPE_UNBAN);
+            out.writeLong(delta.getTimestamp());
+            writeString(out, delta.getCountry());
+            return frame(bytes.toByteArray());
+        } catch (IOException ex) {
+            // Writing to an in memory stream does not fail
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Decodes a change to the banned countries from the payload of a ban or unban record
+     *
+     * @param type    The type of the record
+     * @param payload The buffer positioned just after the type of the record
+     * @return The decoded BanDelta
+     */
+    public static BanDelta decodeBanDelta(byte type, ByteBuffer payload) {
+        long timestamp = payload.getLong();
+        return new BanDelta(readString(payload), type == TYPE_BAN, timestamp);
+    }
+
+    /**
+     * Adds the length and checksum in front of the payload
+     *
+     * @param payload The payload of the record
+     * @return The framed record
+     */
+    private static byte[] frame(byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        return ByteBuffer.allocate(FRAME_BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .array();
+    }
+
+    private static void writeDetails(DataOutputStream out, CardResponse details) throws IOException {
+        out.writeBoolean(details != null);
+        if (details == null) {
+            return;
+        }
+        writeValueMap(out, details.getNumber());
+        writeString(out, details.getScheme());
+        writeString(out, details.getType());
+        writeString(out, details.getBrand());
+        out.writeBoolean(details.isPrepaid());
+
+        Country country = details.getCountry();
+        out.writeBoolean(country != null);
+        if (country != null) {
+            writeString(out, country.getNumeric());
+            writeString(out, country.getAlpha2());
+            writeString(out, country.getName());
+            writeString(out, country.getEmoji());
+            writeString(out, country.getCurrency());
+            out.writeInt(country.getLatitude());
+            out.writeInt(country.getLongitude());
+        }
+
+        Map<String, String> bank = details.getBank();
+        out.writeShort(bank == null ? -1 : bank.size());
+        if (bank != null) {
+            for (Map.Entry<String, String> entry : bank.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+    }
+
+    private static CardResponse readDetails(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        CardResponse details = new CardResponse();
+        details.setNumber(readValueMap(in));
+        details.setScheme(readString(in));
+        details.setType(readString(in));
+        details.setBrand(readString(in));
+        details.setPrepaid(in.get() != 0);
+
+        if (in.get() != 0) {
+            Country country = new Country();
+            country.setNumeric(readString(in));
+            country.setAlpha2(readString(in));
+            country.setName(readString(in));
+            country.setEmoji(readString(in));
+            country.setCurrency(readString(in));
+            country.setLatitude(in.getInt());
+            country.setLongitude(in.getInt());
+            details.setCountry(country);
+        }
+
+        short bankSize = in.getShort();
+        if (bankSize >= 0) {
+            Map<String, String> bank = new LinkedHashMap<>();
+            for (int i = 0; i < bankSize; i++) {
+                bank.put(readString(in), readString(in));
+            }
+            details.setBank(bank);
+        }
+        return details;
+    }
+
+    private static void writeValueMap(DataOutputStream out, Map<String, Object> map) throws IOException {
+        out.writeShort(map == null ? -1 : map.size());
+        if (map == null) {
+            return;
+        }
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value == null) {
+                out.writeByte(VALUE_NULL);
+            } else if (value instanceof Boolean b) {
+                out.writeByte(VALUE_BOOLEAN);
+                out.writeBoolean(b);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+                out.writeByte(VALUE_LONG);
+                out.writeLong(((Number) value).longValue());
+            } else if (value instanceof Number n) {
+                out.writeByte(VALUE_DOUBLE);
+                out.writeDouble(n.doubleValue());
+            } else {
+                out.writeByte(VALUE_STRING);
+                writeString(out, value.toString());
+            }
+        }
+    }
+
+    private static Map<String, Object> readValueMap(ByteBuffer in) {
+        short size = in.getShort();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            Object value = switch (in.get()) {
+                case VALUE_BOOLEAN -> in.get() != 0;
+                case VALUE_LONG    -> narrow(in.getLong());
+                case VALUE_DOUBLE  -> in.getDouble();
+                case VALUE_STRING  -> readString(in);
+                default            -> null;
+            };
+            map.put(key, value);
+        }
+        return map;
+    }
+
+    /**
+     * Jackson reads small json numbers as an Integer, so the same is done here to decode to an equal map
+     */
+    private static Object narrow(long value) {
+        return value == (int) value ? (Object) (int) value : (Object) value;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The value is too long to be saved.");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        short length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
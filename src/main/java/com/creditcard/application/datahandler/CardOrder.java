@@ -0,0 +1,13 @@
+package com.creditcard.application.datahandler;
+
+/**
+ * The order that the CreditCards are listed in
+ *
+ * @see CoolTempDatabase#iterateCards(java.util.UUID, CardOrder)
+ */
+public enum CardOrder {
+    // Sorted by the id of the card
+    ID,
+    // In the order the cards were accepted, starting with the oldest card
+    INSERTION
+}
@@ -0,0 +1,108 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CreditCard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * Keeps the accepted CreditCards in memory. Every card is kept in a numbered slot, which are handed out in the order the
+ * cards are inserted and never move, and a CreditCard object is only created when a card is read.
+ * <p>
+ * A card is inserted in two steps. Its slot is reserved first, which claims the card number so no other insert can
+ * take it, and the card is only published once it has been saved. Until then the card is invisible to every read.
+ * <p>
+ * The banned flag of the cards that are read is not set, as it depends on the banned countries at the time.
+ */
+public interface CardStorage extends Closeable {
+
+    /**
+     * Creates the storage that the loaded cards are added to
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * Creates an empty storage
+         *
+         * @param expectedCards The number of cards that are about to be added
+         * @return The storage
+         * @throws IOException If the storage could not be created
+         */
+        CardStorage create(int expectedCards) throws IOException;
+    }
+
+    /**
+     * Reserves a slot for the card and claims its card number
+     *
+     * @param card The CreditCard to be inserted
+     * @return The reserved slot, or -1 if the card number has already been claimed
+     */
+    int reserve(CreditCard card);
+
+    /**
+     * Makes the card in the reserved slot visible, once it has been saved
+     *
+     * @param slot The slot that was reserved
+     */
+    void publish(int slot);
+
+    /**
+     * Gives the card number of a reserved slot back, when the card could not be saved. The slot is never used again.
+     *
+     * @param slot The slot that was reserved
+     */
+    void release(int slot);
+
+    /**
+     * Adds a card that was already saved, such as a card that was loaded from the file. The card is kept even if its
+     * card number has already been claimed, so no saved card is ever lost.
+     *
+     * @param card The CreditCard to be added
+     */
+    void add(CreditCard card);
+
+    /**
+     * Fetches the card with the id
+     *
+     * @param id The id of the card
+     * @return The CreditCard, or null if there is no card with the id
+     */
+    CreditCard get(UUID id);
+
+    /**
+     * Checks if the card number has been claimed, either by a card or by an insert that is still being saved
+     *
+     * @param number The card number, which may contain whitespace
+     * @return If the card number has been claimed
+     */
+    boolean containsNumber(String number);
+
+    /**
+     * Walks through the cards in the requested order, starting after the cursor. Only the cards that are read are
+     * ever created.
+     *
+     * @param after The id of the last card that was already returned, or null to start at the beginning
+     * @param order The order that the cards are walked through in
+     * @return The CreditCards after the cursor
+     * @throws IllegalArgumentException If the cursor is not the id of a card when walking in insertion order
+     */
+    Iterator<CreditCard> iterator(UUID after, CardOrder order);
+
+    /**
+     * The number of cards that are visible
+     *
+     * @return The number of cards
+     */
+    int size();
+
+    /**
+     * Lets go of the files that the storage keeps its cards in, if any, once the application is shutting down
+     *
+     * @throws IOException If a file could not be closed
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -1,60 +1,216 @@
 package com.creditcard.application.datahandler;
 
+import com.creditcard.application.models.cards.BanDelta;
 import com.creditcard.application.models.cards.CardCreate;
 import com.creditcard.application.models.cards.CardResponse;
 import com.creditcard.application.models.cards.CreditCard;
-import com.creditcard.application.models.exceptions.ObjectMapperException;
+import com.creditcard.application.models.exceptions.SaveCardsException;
+import com.creditcard.application.models.responses.CardResult;
+import com.creditcard.application.models.responses.Rejection;
 import com.creditcard.application.modules.FileModule;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.creditcard.application.modules.Metrics;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This class behaves as the database. It stores all the CreditCards and allows them to be fetched.
  */
-public class CoolTempDatabase {
+public class CoolTempDatabase implements Closeable {
+
+    private static final Metrics.Timer DUPLICATE_CHECKS = Metrics.timer("duplicate_check_seconds",
+            "The time taken to check if a card number has already been captured");
+    private static final Metrics.Family<Metrics.Timer> BAN_CHANGES = Metrics.timers("ban_change_seconds",
+            "The time taken to save a ban or unban of countries, including the wait for the other inserts", "change");
 
     public CoolTempDatabase(FileModule fileModule) throws Exception {
+        this(fileModule, PackedCardStorage::new);
+    }
+
+    /**
+     * Loads the saved cards into the storage that is created by the factory
+     *
+     * @param fileModule     The module that the cards and banned countries are loaded with
+     * @param storageFactory Creates the storage that the cards are kept in
+     * @throws Exception If the cards or banned countries could not be loaded
+     */
+    public CoolTempDatabase(FileModule fileModule, CardStorage.Factory storageFactory) throws Exception {
 
-        // Load the existing banned countries and credit cards into memory
+        // Load the configured banned countries and then replay the journaled changes on top of them
         ArrayList<String> countries = fileModule.loadBannedCountries();
+        Map<String, String> banned  = new LinkedHashMap<>();
+        countries.forEach(country -> banned.putIfAbsent(CountryIndex.normalise(country), country));
+
+        Map<UUID, CreditCard> loaded = fileModule.loadCards(delta -> {
+            if (delta.isBanned()) {
+                banned.putIfAbsent(CountryIndex.normalise(delta.getCountry()), delta.getCountry());
+            } else {
+                banned.remove(CountryIndex.normalise(delta.getCountry()));
+            }
+        });
+        this.storage = storageFactory.create(loaded.size());
+        this.configuredCountries = new LinkedHashMap<>();
+        countries.forEach(country -> configuredCountries.putIfAbsent(CountryIndex.normalise(country), country));
+        this.bannedCountries = Collections.unmodifiableMap(banned);
 
-        this.cards           = fileModule.loadCards(countries);
-        this.bannedCountries = countries;
+        // Pack the cards that were loaded into the storage, in the order they were saved. The loaded objects are then
+        // dropped, so only the packed cards and a single copy of each of their details are kept.
+        loaded.values().forEach(card -> {
+            card.setDetails(detailsTable.share(card.getDetails()));
+            storage.add(card);
+            countryIndex.add(card);
+        });
     }
 
-    // Acts as the database which loads the credit cards into memory from the cards.txt
-    private final Map<UUID, CreditCard> cards;
+    // Acts as the database which loads the credit cards into memory from the log. The cards are kept in insertion
+    // order and are indexed by their id, their card number and the order of their ids.
+    private final CardStorage storage;
+
+    // Counts the cards that were issued in each country
+    private final CountryIndex countryIndex = new CountryIndex();
+
+    // The single shared copy of the details of all the cards
+    private final DetailsTable detailsTable = new DetailsTable();
+
+    // The keys of the card details that have been written to the current log segment, which the cards in it can refer
+    // to without writing their details again. A key is only added once its details have been saved.
+    private final Set<Long> loggedDetails = ConcurrentHashMap.newKeySet();
+
+    // Inserts share the read lock and can run in parallel, while (un)banning takes the write lock. This makes sure a
+    // card can never be inserted into a country in the middle of it being (un)banned.
+    private final ReadWriteLock banLock = new ReentrantReadWriteLock();
+
+    // The log that the accepted cards and the ban changes are appended to, once it has been attached
+    private volatile WriteAheadLog log;
+
+    // The banned countries from banned-countries.txt, which the journaled changes are applied on top of
+    private final Map<String, String> configuredCountries;
+
+    // Contains the banned countries, keyed by the normalised name. Writers replace the whole map so that readers
+    // always see a consistent snapshot without having to lock.
+    private volatile Map<String, String> bannedCountries;
+
+    // Count the changes to the banned countries and the accepted cards, so the responses that were built from them can
+    // tell if they are out of date. Each is only counted up once the change can be read.
+    private final AtomicLong bansVersion  = new AtomicLong();
+    private final AtomicLong cardsVersion = new AtomicLong();
 
-    // Contains the list of banned countries.
-    private final ArrayList<String> bannedCountries;
+    /**
+     * Attaches the log that the accepted cards and the ban changes are appended to. This is done once the saved data
+     * has been loaded, so nothing is appended to a file that is still being read.
+     *
+     * @param log The opened log
+     */
+    public void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Closes the storage that the cards are kept in, once the application is shutting down
+     *
+     * @throws IOException If the files of the storage could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        storage.close();
+    }
 
     /**
-     * Converts the Object/Model to json, so it can be used in a response
+     * Continues the attached log in a new file, so that everything before it can be replaced by a snapshot. This is
+     * done while holding the write lock, so no card or ban change can be in the middle of being saved.
      *
-     * @param data The Object/Model that will be mapped to json
-     * @return The Object/Model in json form
+     * @param next The file that the log continues in
+     * @return The changes that give the banned countries at the start of the new file
+     * @throws IOException If the log could not be rolled over
      */
-    public String dataToJson(Object data) throws ObjectMapperException {
+    public List<BanDelta> rollLog(Path next) throws IOException {
+        banLock.writeLock().lock();
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.enable(SerializationFeature.INDENT_OUTPUT);
-            StringWriter sw = new StringWriter();
-            mapper.writeValue(sw, data);
-            return sw.toString();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            throw new ObjectMapperException(ex.getMessage());
+            log.roll(next);
+            loggedDetails.clear();
+
+            // Only the difference to the configured banned countries has to be kept
+            long now                   = System.currentTimeMillis();
+            List<BanDelta> deltas      = new ArrayList<>();
+            Map<String, String> banned = bannedCountries;
+            banned.forEach((key, country) -> {
+                if (!configuredCountries.containsKey(key)) {
+                    deltas.add(new BanDelta(country, true, now));
+                }
+            });
+            configuredCountries.forEach((key, country) -> {
+                if (!banned.containsKey(key)) {
+                    deltas.add(new BanDelta(country, false, now));
+                }
+            });
+            return deltas;
+        } finally {
+            banLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the records to the log if one has been attached
+     *
+     * @param records The encoded records
+     * @throws SaveCardsException If the records could not be saved
+     */
+    private void persist(List<byte[]> records) throws SaveCardsException {
+        WriteAheadLog current = log;
+        if (current != null && !records.isEmpty()) {
+            current.append(records);
         }
     }
 
+    /**
+     * Encodes the card as a record that refers to its details. The details are encoded in front of it if they are not
+     * in the current log segment yet, so a card is never saved before the details it refers to.
+     *
+     * @param card       The CreditCard to be encoded
+     * @param records    The records that the card is added to
+     * @param newDetails The keys of the details that are already in the records, which the key is added to if the
+     *                   details are added
+     */
+    private void encode(CreditCard card, List<byte[]> records, Set<Long> newDetails) {
+        DetailsTable.Entry entry = detailsTable.intern(card.getDetails());
+        long key                 = entry == null ? CardCodec.NO_DETAILS : entry.key();
+        if (key != CardCodec.NO_DETAILS && !loggedDetails.contains(key) && newDetails.add(key)) {
+            records.add(CardCodec.encodeDetails(key, entry.details()));
+        }
+        records.add(CardCodec.encode(card, key));
+    }
+
+    /**
+     * Strips any whitespace from the card number so that the same card always maps to the same index key
+     *
+     * @param number The card number as it was submitted
+     * @return The card number without any whitespace
+     */
+    public static String normaliseCardNumber(String number) {
+        StringBuilder sb = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
     // =================================================================================================================
     // =============================================== Credit Cards ====================================================
     // =================================================================================================================
@@ -62,51 +218,195 @@ public class CoolTempDatabase {
     /**
      * This takes a valid credit card create and maps it to a CreditCard
      *
-     * @param create The body containing the main components for a CreditCard
+     * @param create  The body containing the main components for a CreditCard
+     * @param details The details of the card that were looked up
+     * @return The created CreditCard, or the reason it was rejected if the card number has already been captured or
+     * the country of the card was banned after the card was validated
+     * @throws SaveCardsException If the card could not be saved
+     */
+    public CardResult insertCreditCard(CardCreate create, CardResponse details) throws SaveCardsException {
+        CreditCard creditCard = newCreditCard(create, details);
+
+        banLock.readLock().lock();
+        try {
+            if (isBanned(CountryIndex.countryOf(creditCard))) {
+                return CardResult.rejected(Rejection.BANNED);
+            }
+
+            // Claim the card number first, so two inserts of the same card can never both be accepted
+            int slot = storage.reserve(creditCard);
+            if (slot < 0) {
+                return CardResult.rejected(Rejection.DUPLICATE);
+            }
+
+            // Only make the card visible once it has been saved, and give the number back if that fails
+            List<byte[]> records = new ArrayList<>(2);
+            Set<Long> newDetails = new HashSet<>(2);
+            try {
+                encode(creditCard, records, newDetails);
+                persist(records);
+            } catch (SaveCardsException | RuntimeException ex) {
+                storage.release(slot);
+                throw ex;
+            }
+            loggedDetails.addAll(newDetails);
+            storage.publish(slot);
+            countryIndex.add(creditCard);
+            cardsVersion.incrementAndGet();
+            return CardResult.accepted(creditCard);
+        } finally {
+            banLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a batch of CreditCards with a single write to the log. Every card is checked on its own, so a banned or
+     * duplicate card only rejects that card, including a card that is a duplicate of an earlier card in the batch.
+     *
+     * @param creditCards The CreditCards to be inserted, which were created with newCreditCard
+     * @return The reason each card was rejected, in the same order as the cards, which is null for accepted cards
+     * @throws SaveCardsException If the batch could not be saved, in which case none of the cards are inserted
+     */
+    public List<Rejection> insertCreditCards(List<CreditCard> creditCards) throws SaveCardsException {
+        List<Rejection> rejections = new ArrayList<>(creditCards.size());
+        List<CreditCard> claimed   = new ArrayList<>(creditCards.size());
+        int[] slots                = new int[creditCards.size()];
+        List<byte[]> records       = new ArrayList<>(creditCards.size());
+        Set<Long> newDetails       = new HashSet<>();
+
+        banLock.readLock().lock();
+        try {
+            for (CreditCard creditCard : creditCards) {
+                int slot = -1;
+                if (isBanned(CountryIndex.countryOf(creditCard))) {
+                    rejections.add(Rejection.BANNED);
+                } else if ((slot = storage.reserve(creditCard)) < 0) {
+                    rejections.add(Rejection.DUPLICATE);
+                } else {
+                    rejections.add(null);
+                    slots[claimed.size()] = slot;
+                    claimed.add(creditCard);
+                    encode(creditCard, records, newDetails);
+                }
+            }
+
+            // Save the whole batch at once, and give all the numbers back if that fails
+            try {
+                persist(records);
+            } catch (SaveCardsException | RuntimeException ex) {
+                for (int i = 0; i < claimed.size(); i++) {
+                    storage.release(slots[i]);
+                }
+                throw ex;
+            }
+            loggedDetails.addAll(newDetails);
+            for (int i = 0; i < claimed.size(); i++) {
+                storage.publish(slots[i]);
+                countryIndex.add(claimed.get(i));
+            }
+            if (!claimed.isEmpty()) {
+                cardsVersion.incrementAndGet();
+            }
+            return rejections;
+        } finally {
+            banLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Creates a new CreditCard with a new id, which is not inserted yet. The card number is kept without whitespace,
+     * which is how it is stored.
+     *
+     * @param create  The body containing the main components for a CreditCard
+     * @param details The details of the card that were looked up
      * @return The created CreditCard
      */
-    public CreditCard insertCreditCard(CardCreate create, CardResponse details) {
+    public CreditCard newCreditCard(CardCreate create, CardResponse details) {
         CreditCard creditCard = new CreditCard();
+        creditCard.setId(UUID.randomUUID());
         creditCard.setCardHolder(create.getCardHolder());
-        creditCard.setCardNumber(create.getCardNumber());
-        creditCard.setDetails(details);
-        cards.put(creditCard.getId(), creditCard);
+        creditCard.setCardNumber(create.getCardNumber() == null ? null : normaliseCardNumber(create.getCardNumber()));
+        creditCard.setDetails(detailsTable.share(details));
         return creditCard;
     }
 
     /**
-     * Returns all the CreditCards from the Map of CreditCards
+     * Sets the banned flag of a card that was read from the storage, which depends on the banned countries right now
+     *
+     * @param card The CreditCard that was read
+     * @return The same CreditCard
+     */
+    private CreditCard withBanState(CreditCard card) {
+        card.setIsBanned(isBanned(CountryIndex.countryOf(card)));
+        return card;
+    }
+
+    /**
+     * Walks through the CreditCards in the requested order, starting after the cursor. Both orders are kept up to date
+     * by an index, so nothing is sorted and only the cards that are read are ever touched.
+     *
+     * @param after The id of the last card that was already returned, or null to start at the beginning
+     * @param order The order that the cards are walked through in
+     * @return The CreditCards after the cursor
+     * @throws IllegalArgumentException If the cursor is not the id of a card when walking in insertion order
+     */
+    public Iterator<CreditCard> iterateCards(UUID after, CardOrder order) {
+        Iterator<CreditCard> cards = storage.iterator(after, order);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cards.hasNext();
+            }
+
+            @Override
+            public CreditCard next() {
+                return withBanState(cards.next());
+            }
+        };
+    }
+
+    /**
+     * Walks through all the CreditCards in the order they were accepted, creating each card as it is reached
+     *
+     * @return The CreditCards in insertion order
+     */
+    public Iterable<CreditCard> getCards() {
+        return () -> iterateCards(null, CardOrder.INSERTION);
+    }
+
+    /**
+     * The number of CreditCards that have been accepted
      *
-     * @return List of CreditCards
+     * @return The number of cards
      */
-    public List<CreditCard> getAllCards() {
-        return cards.keySet().stream().sorted().map(cards::get).collect(Collectors.toList());
+    public int getCardCount() {
+        return storage.size();
     }
 
     /**
      * Fetches a CreditCard by the specific UUID of that card
      *
      * @param id The UUID for the CreditCard we want to retrieve
-     * @return The CreditCard with the
-     * @throws NullPointerException when there is no CreditCard found
-     */
-    public CreditCard getCardById(UUID id) throws NullPointerException {
-        CreditCard card = cards.get(id);
-        if (card != null) {
-            return card;
-        } else {
-            throw new NullPointerException(id.toString());
-        }
+     * @return The CreditCard with the id, or null if there is no CreditCard with the id
+     */
+    public CreditCard getCardById(UUID id) {
+        CreditCard card = storage.get(id);
+        return card == null ? null : withBanState(card);
     }
 
     /**
-     * Checks to see If any of the cards in the map match the value of the card number presented
+     * Checks the card number index to see if the card number presented has already been captured
      *
      * @param number The card number to be searched for
      * @return If a match was found or not
      */
     public boolean isCardDuplicate(String number) {
-        return cards.values().stream().anyMatch(c -> c.getCardNumber().equalsIgnoreCase(number));
+        long start = System.nanoTime();
+        try {
+            return storage.containsNumber(number);
+        } finally {
+            DUPLICATE_CHECKS.recordSince(start);
+        }
     }
 
     // =================================================================================================================
@@ -119,7 +419,7 @@ public class CoolTempDatabase {
      * @return Banned countries List
      */
     public List<String> getBannedCountries() {
-        return bannedCountries;
+        return List.copyOf(bannedCountries.values());
     }
 
     /**
@@ -129,7 +429,43 @@ public class CoolTempDatabase {
      * @return If the country is banned or not
      */
     public boolean isBanned(String countryName) {
-        return bannedCountries.contains(countryName);
+        return countryName != null && bannedCountries.containsKey(CountryIndex.normalise(countryName));
+    }
+
+    /**
+     * Counts the number of cards that were issued in each country
+     *
+     * @return The country names mapped to the number of cards issued in them
+     */
+    public Map<String, Integer> getCountryCardCounts() {
+        return countryIndex.getCounts();
+    }
+
+    /**
+     * The number of distinct card details that the cards share
+     *
+     * @return The number of details
+     */
+    public int getDetailsCount() {
+        return detailsTable.size();
+    }
+
+    /**
+     * Counts the changes to the banned countries, which also change the banned flag of the cards
+     *
+     * @return The number of times the banned countries have changed since the application started
+     */
+    public long getBansVersion() {
+        return bansVersion.get();
+    }
+
+    /**
+     * Counts the inserts that accepted at least one card
+     *
+     * @return The number of times cards have been accepted since the application started
+     */
+    public long getCardsVersion() {
+        return cardsVersion.get();
     }
 
     /**
@@ -137,40 +473,77 @@ public class CoolTempDatabase {
      *
      * @param countries The list of countries to be banned
      * @return The list of banned countries that were not in the already banned list
+     * @throws SaveCardsException If the ban could not be saved, in which case nothing is banned
      */
-    public List<String> banCountries(List<String> countries) {
-        ArrayList<String> newBan = new ArrayList<>();
-        for (String country : countries) {
-            if (!isBanned(country)) {
-                // Ban any of the existing cards that belong to this country
-                cards.values().forEach(creditCard -> {
-                    if (!creditCard.getIsBanned() & creditCard.getDetails().getCountry().getName().equalsIgnoreCase(country)) {
-                        creditCard.setIsBanned(true);
-                    }
-                });
-                newBan.add(country);
+    public List<String> banCountries(List<String> countries) throws SaveCardsException {
+        long start = System.nanoTime();
+        banLock.writeLock().lock();
+        try {
+            Map<String, String> banned = new LinkedHashMap<>(bannedCountries);
+            ArrayList<String> newBan   = new ArrayList<>();
+            for (String country : countries) {
+                if (banned.putIfAbsent(CountryIndex.normalise(country), country) == null) {
+                    newBan.add(country);
+                }
+            }
+
+            // Journal the change while holding the lock, so the journal has the same order as the changes
+            // The cards of the country are banned from now on, as their flag is worked out whenever they are read
+            persist(journal(newBan, true));
+            if (!newBan.isEmpty()) {
+                bannedCountries = Collections.unmodifiableMap(banned);
+                bansVersion.incrementAndGet();
             }
+            return newBan;
+        } finally {
+            banLock.writeLock().unlock();
+            BAN_CHANGES.with("ban").recordSince(start);
         }
-        bannedCountries.addAll(newBan);
-        return newBan;
     }
 
     /**
      * Removes the list of countries from the banned list
      *
      * @param countries The country names that will be unbanned
+     * @throws SaveCardsException If the unban could not be saved, in which case nothing is unbanned
      */
-    public void unbanCountries(List<String> countries) {
-        bannedCountries.removeAll(countries);
-        for (String country : countries) {
-            if (!isBanned(country)) {
-                // Unban any of the existing cards that belong to this country
-                cards.values().forEach(creditCard -> {
-                    if (creditCard.getIsBanned() & creditCard.getDetails().getCountry().getName().equalsIgnoreCase(country)) {
-                        creditCard.setIsBanned(false);
-                    }
-                });
+    public void unbanCountries(List<String> countries) throws SaveCardsException {
+        long start = System.nanoTime();
+        banLock.writeLock().lock();
+        try {
+            Map<String, String> banned = new LinkedHashMap<>(bannedCountries);
+            ArrayList<String> unbanned = new ArrayList<>();
+            for (String country : countries) {
+                if (banned.remove(CountryIndex.normalise(country)) != null) {
+                    unbanned.add(country);
+                }
+            }
+
+            // Journal the change while holding the lock, so the journal has the same order as the changes
+            persist(journal(unbanned, false));
+            if (!unbanned.isEmpty()) {
+                bannedCountries = Collections.unmodifiableMap(banned);
+                bansVersion.incrementAndGet();
             }
+        } finally {
+            banLock.writeLock().unlock();
+            BAN_CHANGES.with("unban").recordSince(start);
+        }
+    }
+
+    /**
+     * Encodes the (un)banned countries as journal records
+     *
+     * @param countries The countries that were (un)banned
+     * @param isBanned  If the countries were banned or unbanned
+     * @return The encoded records
+     */
+    private List<byte[]> journal(List<String> countries, boolean isBanned) {
+        long now             = System.currentTimeMillis();
+        List<byte[]> records = new ArrayList<>(countries.size());
+        for (String country : countries) {
+            records.add(CardCodec.encode(new BanDelta(country, isBanned, now)));
         }
+        return records;
     }
 }
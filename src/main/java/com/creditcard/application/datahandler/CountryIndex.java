@@ -0,0 +1,70 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CreditCard;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the CreditCards that were issued in each country. The banned flag of a card is worked out from its country
+ * whenever it is read, so (un)banning a country does not have to touch its cards and only the counts are kept here.
+ */
+public class CountryIndex {
+
+    // The normalised country name mapped to the number of cards that were issued in that country
+    private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+    // The normalised country name mapped to the name as it was first seen, used when displaying the counts
+    private final Map<String, String> displayNames = new ConcurrentHashMap<>();
+
+    /**
+     * Normalises the country name so that the lookups are not affected by case or surrounding whitespace
+     *
+     * @param country The name of the country
+     * @return The normalised country name
+     */
+    public static String normalise(String country) {
+        return country.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Fetches the name of the country that the card was issued in
+     *
+     * @param card The CreditCard
+     * @return The name of the country or null if the card has no country details
+     */
+    public static String countryOf(CreditCard card) {
+        if (card.getDetails() == null || card.getDetails().getCountry() == null) {
+            return null;
+        }
+        return card.getDetails().getCountry().getName();
+    }
+
+    /**
+     * Counts the card for the country it was issued in
+     *
+     * @param card The CreditCard to be counted
+     */
+    public void add(CreditCard card) {
+        String country = countryOf(card);
+        if (country != null) {
+            String key = normalise(country);
+            displayNames.putIfAbsent(key, country);
+            counts.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the number of cards that were issued in each country
+     *
+     * @return The country names mapped to the number of cards issued in them, sorted by name
+     */
+    public Map<String, Integer> getCounts() {
+        Map<String, Integer> result = new TreeMap<>();
+        counts.forEach((key, count) -> result.put(displayNames.getOrDefault(key, key), count.get()));
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The canonical table of card details. Thousands of cards share the same BIN and therefore the same details, so every
+ * card refers to a single shared copy of them instead of keeping its own. The countries of the details are shared the
+ * same way, as many BINs are issued in the same country.
+ * <p>
+ * The details are keyed by their content rather than by BIN. Different BINs often have the same details, and the
+ * details of a BIN can change when it is looked up again, which must not change the details of the older cards.
+ * <p>
+ * The shared details must never be changed once they are in the table.
+ */
+public class DetailsTable {
+
+    private final Map<CardResponse, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Country, Country> countries  = new ConcurrentHashMap<>();
+
+    /**
+     * The shared copy of some card details and the key they are saved under
+     *
+     * @param details The shared card details
+     * @param key     The key of the details in the cards files
+     */
+    public record Entry(CardResponse details, long key) {
+    }
+
+    /**
+     * Fetches the shared copy of the details, adding them to the table if they have not been seen before
+     *
+     * @param details The card details, which may be null
+     * @return The entry of the details, or null if there are no details
+     */
+    public Entry intern(CardResponse details) {
+        if (details == null) {
+            return null;
+        }
+        Entry entry = entries.get(details);
+        if (entry != null) {
+            return entry;
+        }
+        if (details.getCountry() != null) {
+            details.setCountry(countries.computeIfAbsent(details.getCountry(), country -> country));
+        }
+        return entries.computeIfAbsent(details, shared -> new Entry(shared, CardCodec.detailsKey(shared)));
+    }
+
+    /**
+     * Fetches the shared copy of the details
+     *
+     * @param details The card details, which may be null
+     * @return The shared copy of the details, or null if there are no details
+     */
+    public CardResponse share(CardResponse details) {
+        Entry entry = intern(details);
+        return entry == null ? null : entry.details();
+    }
+
+    /**
+     * The number of distinct card details in the table
+     *
+     * @return The number of details
+     */
+    public int size() {
+        return entries.size();
+    }
+}
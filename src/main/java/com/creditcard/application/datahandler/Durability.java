@@ -0,0 +1,15 @@
+package com.creditcard.application.datahandler;
+
+/**
+ * How hard the WriteAheadLog tries to make sure a write has reached the disk before it is acknowledged
+ *
+ * @see WriteAheadLog
+ */
+public enum Durability {
+    // Every group of writes is forced to the disk before any of them are acknowledged
+    BATCH,
+    // Writes are acknowledged once written and the disk is forced at most once per sync interval
+    INTERVAL,
+    // Writes are acknowledged once written and the operating system decides when they reach the disk
+    NONE
+}
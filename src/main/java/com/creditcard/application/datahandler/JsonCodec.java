@@ -0,0 +1,149 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardCreate;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.CountryList;
+import com.creditcard.application.models.cards.CreditCard;
+import com.creditcard.application.models.exceptions.ObjectMapperException;
+import com.creditcard.application.models.responses.ResponseError;
+import com.creditcard.application.modules.Metrics;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads and writes all the json of the application with a single shared ObjectMapper.
+ * <p>
+ * Creating an ObjectMapper is expensive and throws away all the serializers it has looked up, so the mapper is only
+ * created once. The readers and writers for each type are cached as well, which lets them skip looking up the root
+ * serializer. They are immutable, so they can be shared between all the request threads.
+ * <p>
+ * The json is compact by default. Pretty output can be turned on with {@code -Dcards.prettyJson=true} for debugging.
+ */
+public final class JsonCodec {
+
+    // Streamed responses are flushed as the buffer fills up, rather than after every value that is written
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    // If the responses should be indented, which makes them easier to read but larger
+    private static final boolean IS_PRETTY = Boolean.getBoolean("cards.prettyJson");
+
+    private static final Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    private static final Metrics.Timer DECODE = Metrics.timer("json_decode_seconds", "The time taken to read json");
+    private static final Metrics.Timer ENCODE = Metrics.timer("json_encode_seconds", "The time taken to write json");
+
+    static {
+        // Warm up the models that are read and written on every request
+        for (Class<?> type : new Class<?>[]{CardCreate.class, CardResponse.class, CreditCard.class, CountryList.class,
+                ResponseError.class}) {
+            reader(type);
+            writer(type);
+        }
+    }
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Fetches the shared reader for the type
+     *
+     * @param type The type that the json is read as
+     * @return The cached reader
+     */
+    public static ObjectReader reader(Class<?> type) {
+        return READERS.computeIfAbsent(type, MAPPER::readerFor);
+    }
+
+    /**
+     * Fetches the shared writer for the type, which is compact unless pretty json was turned on
+     *
+     * @param type The type of the values that are written
+     * @return The cached writer
+     */
+    public static ObjectWriter writer(Class<?> type) {
+        return WRITERS.computeIfAbsent(type, key -> {
+            ObjectWriter writer = MAPPER.writerFor(key);
+            return IS_PRETTY ? writer.withDefaultPrettyPrinter() : writer;
+        });
+    }
+
+    /**
+     * Creates a generator that streams json straight to the output, so large responses never have to be built up in
+     * memory. The generator is indented the same way as the other responses. Closing it does not end the arrays and
+     * objects that are still open, so json that failed part of the way through never looks complete.
+     *
+     * @param out The stream that the json is written to
+     * @return The generator, which has to be closed to flush the json. This leaves the stream open.
+     * @throws IOException If the generator could not be created
+     */
+    public static JsonGenerator generator(OutputStream out) throws IOException {
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        return IS_PRETTY ? generator.useDefaultPrettyPrinter() : generator;
+    }
+
+    /**
+     * Reads the json as the provided type
+     *
+     * @param json The json to be read
+     * @param type The type that the json is read as
+     * @return The value that the json represents
+     * @throws IOException If the json is invalid or does not match the type
+     */
+    public static <T> T read(String json, Class<T> type) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return reader(type).readValue(json);
+        } finally {
+            DECODE.recordSince(start);
+        }
+    }
+
+    /**
+     * Reads the UTF-8 encoded json as the provided type
+     *
+     * @param json The json to be read
+     * @param type The type that the json is read as
+     * @return The value that the json represents
+     * @throws IOException If the json is invalid or does not match the type
+     */
+    public static <T> T read(byte[] json, Class<T> type) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return reader(type).readValue(json);
+        } finally {
+            DECODE.recordSince(start);
+        }
+    }
+
+    /**
+     * Converts the Object/Model to json, so it can be used in a response
+     *
+     * @param data The Object/Model that will be mapped to json
+     * @return The Object/Model in json form
+     * @throws ObjectMapperException If the Object/Model could not be mapped
+     */
+    public static String toJson(Object data) throws ObjectMapperException {
+        long start = System.nanoTime();
+        try {
+            return data == null ? "null" : writer(data.getClass()).writeValueAsString(data);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            throw new ObjectMapperException(ex.getMessage());
+        } finally {
+            ENCODE.recordSince(start);
+        }
+    }
+}
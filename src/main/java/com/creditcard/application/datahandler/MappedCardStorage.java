@@ -0,0 +1,247 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.CreditCard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the columns of the cards outside the heap, in memory mapped files, so the number of cards is not capped by the
+ * heap and the garbage collector never has to walk through them. Only the tables of the slots and the shared card
+ * details stay on the heap.
+ * <p>
+ * Every slot is a fixed record of {@value #RECORD_BYTES} bytes in the records file, and the card holder names are
+ * appended to the holders file, which the records point into. Both files are mapped in chunks that are added as they
+ * fill up, so nothing is ever copied when the storage grows. The records are only mapped while the storage grows, but
+ * the names of several cards can be appended at once, so every name claims its place in the holders file first.
+ * <p>
+ * The files are only a place to keep the cards outside the heap. The log is still what the cards are saved in, so the
+ * files are started from scratch and filled from the log every time the application starts.
+ */
+public class MappedCardStorage extends SlotCardStorage {
+
+    public static final String RECORDS_FILE = "records.dat";
+    public static final String HOLDERS_FILE = "holders.dat";
+
+    // The layout of a record
+    private static final int ID_HIGH       = 0;
+    private static final int ID_LOW        = 8;
+    private static final int NUMBER        = 16;
+    private static final int HOLDER_OFFSET = 24;
+    private static final int HOLDER_LENGTH = 32;
+    private static final int DETAILS       = 36;
+    private static final int NUMBER_LENGTH = 40;
+    private static final int RECORD_BYTES  = 48;
+
+    // The records of a chunk of the records file, and the size of a chunk of the holders file
+    private static final int RECORDS_PER_CHUNK  = 1 << 20;
+    private static final int HOLDER_CHUNK_BYTES = 1 << 26;
+
+    // Marks a missing card holder or card details
+    private static final int NONE = -1;
+
+    private final FileChannel records;
+    private final FileChannel holders;
+
+    // The mapped chunks of the files. The chunks of the holders file are added while other names are being read.
+    private final List<MappedByteBuffer> recordChunks = new ArrayList<>();
+    private final List<MappedByteBuffer> holderChunks = new CopyOnWriteArrayList<>();
+
+    // The end of the card holder names that have been appended
+    private final AtomicLong holdersEnd = new AtomicLong();
+
+    // The shared card details that the records refer to by their index, which are only added to while holding the ids
+    private final List<CardResponse> details           = new CopyOnWriteArrayList<>();
+    private final Map<CardResponse, Integer> detailIds = new IdentityHashMap<>();
+
+    /**
+     * Creates an empty storage in the directory, replacing any files that were left there by an earlier run
+     *
+     * @param directory     The directory that the files are kept in
+     * @param expectedCards The number of cards that are about to be added, so the tables do not have to grow for them
+     * @throws IOException If the files could not be created
+     */
+    public MappedCardStorage(Path directory, int expectedCards) throws IOException {
+        super(expectedCards);
+        Files.createDirectories(directory);
+        records = FileChannel.open(directory.resolve(RECORDS_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        holders = FileChannel.open(directory.resolve(HOLDERS_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        System.out.println("[INFO] - Keeping the cards in memory mapped files in " + directory);
+    }
+
+    /**
+     * Closes both files. The chunks that are already mapped stay readable until they are collected, but the storage
+     * can no longer grow.
+     *
+     * @throws IOException If a file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            records.close();
+        } finally {
+            holders.close();
+        }
+    }
+
+    @Override
+    protected void ensureCapacity(int capacity) {
+        try {
+            while ((long) recordChunks.size() * RECORDS_PER_CHUNK < capacity) {
+                long chunkBytes = (long) RECORDS_PER_CHUNK * RECORD_BYTES;
+                recordChunks.add(records.map(FileChannel.MapMode.READ_WRITE, recordChunks.size() * chunkBytes,
+                        chunkBytes));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    protected void write(int slot, CreditCard card, long number, byte numberLength) {
+        MappedByteBuffer chunk = recordChunks.get(slot / RECORDS_PER_CHUNK);
+        int offset             = (slot % RECORDS_PER_CHUNK) * RECORD_BYTES;
+        chunk.putLong(offset + ID_HIGH, card.getId().getMostSignificantBits());
+        chunk.putLong(offset + ID_LOW, card.getId().getLeastSignificantBits());
+        chunk.putLong(offset + NUMBER, number);
+        chunk.put(offset + NUMBER_LENGTH, numberLength);
+
+        if (card.getCardHolder() == null) {
+            chunk.putInt(offset + HOLDER_LENGTH, NONE);
+        } else {
+            byte[] holder = card.getCardHolder().getBytes(StandardCharsets.UTF_8);
+            chunk.putLong(offset + HOLDER_OFFSET, appendHolder(holder));
+            chunk.putInt(offset + HOLDER_LENGTH, holder.length);
+        }
+
+        if (card.getDetails() == null) {
+            chunk.putInt(offset + DETAILS, NONE);
+        } else {
+            chunk.putInt(offset + DETAILS, detailIdOf(card.getDetails()));
+        }
+    }
+
+    /**
+     * Appends the name to the holders file. A name never spans two chunks, so it moves on to the next chunk if it
+     * does not fit in the rest of the current one. The place of the name is claimed by moving the end past it, so
+     * names that are appended at once never overlap.
+     *
+     * @param holder The encoded card holder name
+     * @return The position of the name in the file
+     */
+    private long appendHolder(byte[] holder) {
+        if (holder.length > HOLDER_CHUNK_BYTES) {
+            throw new IllegalArgumentException("The card holder name is too long to be kept.");
+        }
+        long position;
+        long end;
+        do {
+            position      = holdersEnd.get();
+            long chunkEnd = (position / HOLDER_CHUNK_BYTES + 1) * HOLDER_CHUNK_BYTES;
+            end           = position + holder.length > chunkEnd ? chunkEnd + holder.length : position + holder.length;
+        } while (!holdersEnd.compareAndSet(position, end));
+
+        position  = end - holder.length;
+        int index = (int) (position / HOLDER_CHUNK_BYTES);
+        mapHolderChunks(index);
+        holderChunks.get(index).put((int) (position % HOLDER_CHUNK_BYTES), holder);
+        return position;
+    }
+
+    /**
+     * Maps the chunks of the holders file up to the index, if they have not been mapped yet
+     *
+     * @param index The index of the chunk that a name is about to be written to
+     */
+    private synchronized void mapHolderChunks(int index) {
+        try {
+            while (holderChunks.size() <= index) {
+                holderChunks.add(holders.map(FileChannel.MapMode.READ_WRITE,
+                        (long) holderChunks.size() * HOLDER_CHUNK_BYTES, HOLDER_CHUNK_BYTES));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Finds the index of the shared card details, adding them if no card has referred to them yet
+     *
+     * @param shared The card details
+     * @return The index of the card details
+     */
+    private int detailIdOf(CardResponse shared) {
+        synchronized (detailIds) {
+            return detailIds.computeIfAbsent(shared, added -> {
+                details.add(added);
+                return details.size() - 1;
+            });
+        }
+    }
+
+    @Override
+    protected void clear(int slot) {
+        // The name of a released slot is left in the holders file, as it is only written to once
+    }
+
+    @Override
+    protected long idHigh(int slot) {
+        return recordLong(slot, ID_HIGH);
+    }
+
+    @Override
+    protected long idLow(int slot) {
+        return recordLong(slot, ID_LOW);
+    }
+
+    @Override
+    protected long number(int slot) {
+        return recordLong(slot, NUMBER);
+    }
+
+    @Override
+    protected byte numberLength(int slot) {
+        return recordChunks.get(slot / RECORDS_PER_CHUNK).get((slot % RECORDS_PER_CHUNK) * RECORD_BYTES
+                + NUMBER_LENGTH);
+    }
+
+    @Override
+    protected String holder(int slot) {
+        MappedByteBuffer chunk = recordChunks.get(slot / RECORDS_PER_CHUNK);
+        int offset             = (slot % RECORDS_PER_CHUNK) * RECORD_BYTES;
+        int length             = chunk.getInt(offset + HOLDER_LENGTH);
+        if (length == NONE) {
+            return null;
+        }
+        long position = chunk.getLong(offset + HOLDER_OFFSET);
+        byte[] holder = new byte[length];
+        holderChunks.get((int) (position / HOLDER_CHUNK_BYTES)).get((int) (position % HOLDER_CHUNK_BYTES), holder);
+        return new String(holder, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected CardResponse details(int slot) {
+        int index = recordChunks.get(slot / RECORDS_PER_CHUNK).getInt((slot % RECORDS_PER_CHUNK) * RECORD_BYTES
+                + DETAILS);
+        return index == NONE ? null : details.get(index);
+    }
+
+    private long recordLong(int slot, int field) {
+        return recordChunks.get(slot / RECORDS_PER_CHUNK).getLong((slot % RECORDS_PER_CHUNK) * RECORD_BYTES + field);
+    }
+}
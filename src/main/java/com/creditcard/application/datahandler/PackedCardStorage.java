@@ -0,0 +1,95 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.CreditCard;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the columns of the cards in primitive arrays on the heap, which is the default storage
+ */
+public class PackedCardStorage extends SlotCardStorage {
+
+    private long[] idHigh;
+    private long[] idLow;
+    private long[] numbers;
+    private byte[] numberLengths;
+    private String[] holders;
+    private CardResponse[] details;
+
+    /**
+     * Creates an empty storage
+     *
+     * @param expectedCards The number of cards that are about to be added, so the arrays do not have to grow for them
+     */
+    public PackedCardStorage(int expectedCards) {
+        super(expectedCards);
+        int capacity  = Math.max(MIN_CAPACITY, expectedCards);
+        idHigh        = new long[capacity];
+        idLow         = new long[capacity];
+        numbers       = new long[capacity];
+        numberLengths = new byte[capacity];
+        holders       = new String[capacity];
+        details       = new CardResponse[capacity];
+    }
+
+    @Override
+    protected void ensureCapacity(int capacity) {
+        if (capacity <= idHigh.length) {
+            return;
+        }
+        capacity      = Math.max(capacity, idHigh.length + (idHigh.length >> 1));
+        idHigh        = Arrays.copyOf(idHigh, capacity);
+        idLow         = Arrays.copyOf(idLow, capacity);
+        numbers       = Arrays.copyOf(numbers, capacity);
+        numberLengths = Arrays.copyOf(numberLengths, capacity);
+        holders       = Arrays.copyOf(holders, capacity);
+        details       = Arrays.copyOf(details, capacity);
+    }
+
+    @Override
+    protected void write(int slot, CreditCard card, long number, byte numberLength) {
+        idHigh[slot]        = card.getId().getMostSignificantBits();
+        idLow[slot]         = card.getId().getLeastSignificantBits();
+        numbers[slot]       = number;
+        numberLengths[slot] = numberLength;
+        holders[slot]       = card.getCardHolder();
+        details[slot]       = card.getDetails();
+    }
+
+    @Override
+    protected void clear(int slot) {
+        holders[slot] = null;
+        details[slot] = null;
+    }
+
+    @Override
+    protected long idHigh(int slot) {
+        return idHigh[slot];
+    }
+
+    @Override
+    protected long idLow(int slot) {
+        return idLow[slot];
+    }
+
+    @Override
+    protected long number(int slot) {
+        return numbers[slot];
+    }
+
+    @Override
+    protected byte numberLength(int slot) {
+        return numberLengths[slot];
+    }
+
+    @Override
+    protected String holder(int slot) {
+        return holders[slot];
+    }
+
+    @Override
+    protected CardResponse details(int slot) {
+        return details[slot];
+    }
+}
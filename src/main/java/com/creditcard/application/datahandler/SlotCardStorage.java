@@ -0,0 +1,753 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.CreditCard;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the cards in fixed columns of primitives, with one entry per slot in each of them, rather than as an object per
+ * card. The id is kept as its two halves and the card number as its digits in a long, along with the number of digits
+ * so any leading zeros are kept. Where the columns are kept is up to the subclasses.
+ * <p>
+ * The cards are found by their id and by their card number through open addressing tables of slots, so neither needs
+ * an object per card either. The order of the ids is kept as a sorted array of slots, which the newly published slots
+ * are merged into the next time it is read. The tables and the state of every slot are always kept on the heap.
+ * <p>
+ * Inserts run in parallel. A slot is handed out by a counter, a card number is claimed by swapping the slot into an
+ * empty entry of the number table, so two inserts of the same number see each other, and a slot is published by
+ * writing its state. The read side of the resize lock is held by every insert and read, and only growing the columns
+ * and the tables takes its write side, which happens a handful of times over the life of the storage.
+ */
+public abstract class SlotCardStorage implements CardStorage {
+
+    // The states of a slot, of which a slot that was just handed out is reserved
+    private static final byte RESERVED  = 0;
+    private static final byte PUBLISHED = 1;
+    private static final byte RELEASED  = 2;
+
+    private static final VarHandle STATES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    // The entries of the tables, which otherwise hold the slot plus one. A released number leaves a tombstone behind,
+    // as taking it out of a probe sequence that other inserts are walking through is not safe.
+    private static final int EMPTY     = 0;
+    private static final int TOMBSTONE = -1;
+
+    // The most digits that always fit in a long, when it is read as unsigned
+    private static final int MAX_PACKED_DIGITS = 19;
+
+    // The number of digits of a card number that is not only digits, which is kept as a String instead
+    private static final byte IRREGULAR = 0;
+
+    protected static final int MIN_CAPACITY = 1024;
+
+    // Shared by everything that touches the columns, the states or the tables, and only taken alone to grow them
+    private final ReadWriteLock resizeLock = new ReentrantReadWriteLock();
+
+    // The number of slots that the columns, the states and the tables have room for
+    private volatile int capacity;
+
+    // The state of every slot, which is read and written as a volatile
+    private byte[] states;
+
+    // The number of slots that were handed out, and the number of them that are published
+    private final AtomicInteger slots = new AtomicInteger();
+    private final AtomicInteger size  = new AtomicInteger();
+
+    // The card numbers that could not be packed, which only older files can contain
+    private final Map<String, Integer> irregularNumbers = new ConcurrentHashMap<>();
+    private final Map<Integer, String> irregularSlots   = new ConcurrentHashMap<>();
+
+    // Open addressing tables with linear probing. The ids of all the slots that were reserved and the numbers of all
+    // the slots that are claimed are kept in them. A table is at least twice the capacity, so it is never full.
+    private AtomicIntegerArray idTable;
+    private AtomicIntegerArray numberTable;
+
+    // The published slots sorted by id, how far the slots have been looked through for it, and the slots that were
+    // still reserved at the time. Guarded by the sort lock, apart from reading the sorted slots.
+    private final Object sortLock     = new Object();
+    private volatile int[] sortedSlots = new int[0];
+    private int sortedUpTo             = 0;
+    private int[] waitingSlots         = new int[0];
+
+    /**
+     * Creates an empty storage
+     *
+     * @param expectedCards The number of cards that are about to be added, so the tables do not have to grow for them
+     */
+    protected SlotCardStorage(int expectedCards) {
+        capacity    = Math.max(MIN_CAPACITY, expectedCards);
+        states      = new byte[capacity];
+        idTable     = new AtomicIntegerArray(tableCapacity(capacity));
+        numberTable = new AtomicIntegerArray(tableCapacity(capacity));
+    }
+
+    // =================================================================================================================
+    // ================================================= Columns =======================================================
+    // =================================================================================================================
+
+    /**
+     * Makes room for the slots up to the capacity. Called while holding the write side of the resize lock, so nothing
+     * else touches the columns.
+     *
+     * @param capacity The number of slots that the columns have to hold
+     */
+    protected abstract void ensureCapacity(int capacity);
+
+    /**
+     * Fills in the columns of a slot. Called while holding the read side of the resize lock, by many threads at once
+     * for different slots.
+     *
+     * @param slot         The slot
+     * @param card         The CreditCard
+     * @param number       The packed card number, which is 0 if the number could not be packed
+     * @param numberLength The number of digits of the card number, or 0 if it could not be packed
+     */
+    protected abstract void write(int slot, CreditCard card, long number, byte numberLength);
+
+    /**
+     * Drops anything the columns hold on to for a slot that is no longer used. Called while holding the read side of
+     * the resize lock.
+     *
+     * @param slot The released slot
+     */
+    protected abstract void clear(int slot);
+
+    // The columns of a slot, which are read while holding the read side of the resize lock
+    protected abstract long idHigh(int slot);
+
+    protected abstract long idLow(int slot);
+
+    protected abstract long number(int slot);
+
+    protected abstract byte numberLength(int slot);
+
+    protected abstract String holder(int slot);
+
+    protected abstract CardResponse details(int slot);
+
+    // =================================================================================================================
+    // ================================================= Inserts =======================================================
+    // =================================================================================================================
+
+    @Override
+    public int reserve(CreditCard card) {
+        // Check the number before handing out a slot, so a duplicate only uses one up when it races the first copy
+        if (containsNumber(card.getCardNumber() == null ? "" : card.getCardNumber())) {
+            return -1;
+        }
+        int slot = allocate();
+        resizeLock.readLock().lock();
+        try {
+            fill(slot, card);
+            if (!claimNumber(slot)) {
+                discard(slot);
+                return -1;
+            }
+            insertId(slot);
+            return slot;
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Publishes the slot, which is only ever done by the thread that reserved it
+     *
+     * @param slot The slot that was reserved
+     */
+    @Override
+    public void publish(int slot) {
+        // The read side of the resize lock only keeps the states from being copied in the meantime
+        resizeLock.readLock().lock();
+        try {
+            if (state(slot) == RESERVED) {
+                // Counted first, so a reader that finds the sorted slots as long as the size has every published card
+                size.incrementAndGet();
+                STATES.setVolatile(states, slot, PUBLISHED);
+            }
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives the number of the slot back, which is only ever done by the thread that reserved it
+     *
+     * @param slot The slot that was reserved
+     */
+    @Override
+    public void release(int slot) {
+        resizeLock.readLock().lock();
+        try {
+            if (state(slot) == RESERVED) {
+                releaseNumber(slot);
+                discard(slot);
+            }
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(CreditCard card) {
+        int slot = allocate();
+        resizeLock.readLock().lock();
+        try {
+            fill(slot, card);
+            claimNumber(slot);
+            insertId(slot);
+            size.incrementAndGet();
+            STATES.setVolatile(states, slot, PUBLISHED);
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hands out the next slot, growing the columns, the states and the tables first if there is no room for it. Must
+     * be called without holding the resize lock.
+     *
+     * @return The slot, which is reserved
+     */
+    private int allocate() {
+        int slot = slots.getAndIncrement();
+        if (slot < capacity) {
+            return slot;
+        }
+        resizeLock.writeLock().lock();
+        try {
+            if (slot >= capacity) {
+                int grown = Math.max(slot + 1, capacity + (capacity >> 1));
+                states    = Arrays.copyOf(states, grown);
+                ensureCapacity(grown);
+                if (tableCapacity(grown) > idTable.length()) {
+                    idTable     = rehash(idTable, tableCapacity(grown), true);
+                    numberTable = rehash(numberTable, tableCapacity(grown), false);
+                }
+                capacity = grown;
+            }
+            return slot;
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fills in the card of the slot. Must be called while holding the read side of the resize lock.
+     *
+     * @param slot The slot
+     * @param card The CreditCard
+     */
+    private void fill(int slot, CreditCard card) {
+        String number = card.getCardNumber() == null ? "" : card.getCardNumber();
+        byte length   = packedLength(number);
+        if (length == IRREGULAR) {
+            irregularSlots.put(slot, CoolTempDatabase.normaliseCardNumber(number));
+        }
+        write(slot, card, length == IRREGULAR ? 0 : pack(number), length);
+    }
+
+    /**
+     * Marks the slot as released and drops its columns. Must be called while holding the read side of the resize lock.
+     *
+     * @param slot The slot, whose number is not claimed
+     */
+    private void discard(int slot) {
+        STATES.setVolatile(states, slot, RELEASED);
+        irregularSlots.remove(slot);
+        clear(slot);
+    }
+
+    /**
+     * Reads the state of the slot. Must be called while holding the read side of the resize lock.
+     *
+     * @param slot The slot
+     * @return The state of the slot
+     */
+    private byte state(int slot) {
+        return (byte) STATES.getVolatile(states, slot);
+    }
+
+    // =================================================================================================================
+    // ================================================== Reads ========================================================
+    // =================================================================================================================
+
+    @Override
+    public CreditCard get(UUID id) {
+        resizeLock.readLock().lock();
+        try {
+            int slot = slotOf(id);
+            return slot < 0 ? null : build(slot);
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsNumber(String number) {
+        resizeLock.readLock().lock();
+        try {
+            return hasNumber(number);
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Iterator<CreditCard> iterator(UUID after, CardOrder order) {
+        if (order == CardOrder.INSERTION) {
+            int start = 0;
+            if (after != null) {
+                resizeLock.readLock().lock();
+                try {
+                    start = slotOf(after) + 1;
+                } finally {
+                    resizeLock.readLock().unlock();
+                }
+                if (start == 0) {
+                    throw new IllegalArgumentException("There is no card with the id " + after + ".");
+                }
+            }
+            return new SlotIterator(null, start);
+        }
+
+        int[] sorted = sortedSlots();
+        int start    = 0;
+        if (after != null) {
+            resizeLock.readLock().lock();
+            try {
+                start = upperBound(sorted, after);
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+        }
+        return new SlotIterator(sorted, start);
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Creates the CreditCard of a slot. Must be called while holding the read side of the resize lock.
+     *
+     * @param slot The slot
+     * @return The CreditCard
+     */
+    private CreditCard build(int slot) {
+        CreditCard card = new CreditCard();
+        card.setId(new UUID(idHigh(slot), idLow(slot)));
+        card.setCardHolder(holder(slot));
+        card.setCardNumber(numberOf(slot));
+        card.setDetails(details(slot));
+        return card;
+    }
+
+    /**
+     * Finds the published slot of the id. Must be called while holding the read side of the resize lock.
+     *
+     * @param id The id of the card
+     * @return The slot, or -1 if there is no card with the id
+     */
+    private int slotOf(UUID id) {
+        long high                = id.getMostSignificantBits();
+        long low                 = id.getLeastSignificantBits();
+        AtomicIntegerArray table = idTable;
+        int mask                 = table.length() - 1;
+        for (int i = hashId(high, low) & mask, entry; (entry = table.get(i)) != EMPTY; i = (i + 1) & mask) {
+            int slot = entry - 1;
+            if (idHigh(slot) == high && idLow(slot) == low && state(slot) == PUBLISHED) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Walks through the published slots, either in the order of an array of slots or in the order they were handed
+     * out. The resize lock is only held while moving to the next card, so the cards that are published in the
+     * meantime are picked up when walking in insertion order.
+     */
+    private class SlotIterator implements Iterator<CreditCard> {
+
+        // The slots to walk through, or null to walk through all the slots in insertion order
+        private final int[] order;
+        private int position;
+        private CreditCard next;
+
+        SlotIterator(int[] order, int start) {
+            this.order    = order;
+            this.position = start;
+            this.next     = advance();
+        }
+
+        private CreditCard advance() {
+            resizeLock.readLock().lock();
+            try {
+                // A slot past the capacity was handed out but has not been made room for, so it is not published yet
+                int end = order == null ? Math.min(slots.get(), capacity) : order.length;
+                while (position < end) {
+                    int slot = order == null ? position : order[position];
+                    position++;
+                    if (state(slot) == PUBLISHED) {
+                        return build(slot);
+                    }
+                }
+                return null;
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public CreditCard next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            CreditCard card = next;
+            next            = advance();
+            return card;
+        }
+    }
+
+    // =================================================================================================================
+    // ================================================ Id Order =======================================================
+    // =================================================================================================================
+
+    /**
+     * Fetches the published slots sorted by id, merging in the slots that were published since it was last read. The
+     * slots are found by looking through the slots that were handed out since then and the slots that were still
+     * reserved at the time. The array is never changed once it is returned, so it can be walked through without
+     * holding any lock.
+     *
+     * @return The sorted slots
+     */
+    private int[] sortedSlots() {
+        int[] sorted = sortedSlots;
+        if (sorted.length >= size.get()) {
+            return sorted;
+        }
+
+        synchronized (sortLock) {
+            resizeLock.readLock().lock();
+            try {
+                int end        = Math.min(slots.get(), capacity);
+                int[] added    = new int[waitingSlots.length + end - sortedUpTo];
+                int[] waiting  = new int[added.length];
+                int addedCount = 0;
+                int waitCount  = 0;
+                for (int i = 0; i < added.length; i++) {
+                    int slot   = i < waitingSlots.length ? waitingSlots[i] : sortedUpTo + i - waitingSlots.length;
+                    byte state = state(slot);
+                    if (state == PUBLISHED) {
+                        added[addedCount++] = slot;
+                    } else if (state == RESERVED) {
+                        waiting[waitCount++] = slot;
+                    }
+                }
+                sortedUpTo   = end;
+                waitingSlots = Arrays.copyOf(waiting, waitCount);
+
+                added = Arrays.copyOf(added, addedCount);
+                sortById(added, new int[addedCount], 0, addedCount);
+                sortedSlots = mergeById(sortedSlots, added);
+                return sortedSlots;
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Sorts part of the slots by id with a merge sort, so no slot has to be boxed. Must be called while holding the
+     * read side of the resize lock.
+     *
+     * @param slots  The slots
+     * @param buffer An array at least as long as the slots
+     * @param from   The first slot to be sorted
+     * @param to     The end of the slots to be sorted
+     */
+    private void sortById(int[] slots, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortById(slots, buffer, from, middle);
+        sortById(slots, buffer, middle, to);
+        System.arraycopy(slots, from, buffer, from, to - from);
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            if (j == to || (i < middle && compareSlots(buffer[i], buffer[j]) <= 0)) {
+                slots[k] = buffer[i++];
+            } else {
+                slots[k] = buffer[j++];
+            }
+        }
+    }
+
+    /**
+     * Merges two arrays of slots that are sorted by id. Must be called while holding the read side of the resize lock.
+     *
+     * @param sorted The slots that were already sorted
+     * @param added  The slots to be merged in
+     * @return The slots of both, sorted by id
+     */
+    private int[] mergeById(int[] sorted, int[] added) {
+        int[] merged = new int[sorted.length + added.length];
+        int i        = 0;
+        int j        = 0;
+        for (int k = 0; k < merged.length; k++) {
+            if (j == added.length || (i < sorted.length && compareSlots(sorted[i], added[j]) < 0)) {
+                merged[k] = sorted[i++];
+            } else {
+                merged[k] = added[j++];
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Finds the first slot with an id after the provided id. Must be called while holding the read side of the resize
+     * lock.
+     *
+     * @param sorted The slots sorted by id
+     * @param after  The id
+     * @return The index of the first slot with a later id, or the length of the array if there is none
+     */
+    private int upperBound(int[] sorted, UUID after) {
+        long high = after.getMostSignificantBits();
+        long low  = after.getLeastSignificantBits();
+        int from  = 0;
+        int to    = sorted.length;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            int slot   = sorted[middle];
+            int cmp    = idHigh(slot) != high ? Long.compare(idHigh(slot), high) : Long.compare(idLow(slot), low);
+            if (cmp <= 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Compares the ids of two slots the same way as UUID.compareTo
+     */
+    private int compareSlots(int a, int b) {
+        return idHigh(a) != idHigh(b) ? Long.compare(idHigh(a), idHigh(b)) : Long.compare(idLow(a), idLow(b));
+    }
+
+    // =================================================================================================================
+    // ============================================== Card Numbers =====================================================
+    // =================================================================================================================
+
+    /**
+     * Checks if the card number has been claimed. Must be called while holding the read side of the resize lock.
+     *
+     * @param number The card number, which may contain whitespace
+     * @return If a slot has claimed the number
+     */
+    private boolean hasNumber(String number) {
+        byte length = packedLength(number);
+        if (length == IRREGULAR) {
+            return irregularNumbers.containsKey(CoolTempDatabase.normaliseCardNumber(number));
+        }
+        long packed              = pack(number);
+        AtomicIntegerArray table = numberTable;
+        int mask                 = table.length() - 1;
+        for (int i = hashNumber(packed, length) & mask, entry; (entry = table.get(i)) != EMPTY; i = (i + 1) & mask) {
+            if (entry != TOMBSTONE && number(entry - 1) == packed && numberLength(entry - 1) == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Claims the card number of the slot by swapping the slot into the first empty entry of its probe sequence. An
+     * insert of the same number walks through the same entries, so whichever of them loses the swap finds the number
+     * of the other one in the entry. Must be called while holding the read side of the resize lock.
+     *
+     * @param slot The slot, whose columns have been filled in
+     * @return If the number was claimed, which is false if another slot already has it
+     */
+    private boolean claimNumber(int slot) {
+        if (numberLength(slot) == IRREGULAR) {
+            return irregularNumbers.putIfAbsent(irregularSlots.get(slot), slot) == null;
+        }
+        long number              = number(slot);
+        byte length              = numberLength(slot);
+        AtomicIntegerArray table = numberTable;
+        int mask                 = table.length() - 1;
+        int i                    = hashNumber(number, length) & mask;
+        while (true) {
+            int entry = table.get(i);
+            if (entry == EMPTY) {
+                if (table.compareAndSet(i, EMPTY, slot + 1)) {
+                    return true;
+                }
+                // Another insert took the entry first, so it is looked at again
+                continue;
+            }
+            if (entry != TOMBSTONE && number(entry - 1) == number && numberLength(entry - 1) == length) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Replaces the entry of the slot in the number table with a tombstone. The entry is never emptied, as the inserts
+     * that are walking past it rely on every entry before the first empty one staying taken. Must be called while
+     * holding the read side of the resize lock.
+     *
+     * @param slot The slot
+     */
+    private void releaseNumber(int slot) {
+        if (numberLength(slot) == IRREGULAR) {
+            irregularNumbers.remove(irregularSlots.get(slot), slot);
+            return;
+        }
+        AtomicIntegerArray table = numberTable;
+        int mask                 = table.length() - 1;
+        for (int i = hashNumber(number(slot), numberLength(slot)) & mask; table.get(i) != EMPTY; i = (i + 1) & mask) {
+            if (table.get(i) == slot + 1) {
+                table.set(i, TOMBSTONE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Formats the card number of the slot. Must be called while holding the read side of the resize lock.
+     *
+     * @param slot The slot
+     * @return The card number without any whitespace
+     */
+    private String numberOf(int slot) {
+        int length = numberLength(slot);
+        if (length == IRREGULAR) {
+            return irregularSlots.get(slot);
+        }
+        String digits = Long.toUnsignedString(number(slot));
+        return digits.length() == length ? digits : "0".repeat(length - digits.length()) + digits;
+    }
+
+    /**
+     * Counts the digits of the card number, ignoring any whitespace
+     *
+     * @param number The card number
+     * @return The number of digits, or IRREGULAR if the number has anything else in it or has too many or no digits
+     */
+    private static byte packedLength(String number) {
+        int length = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                length++;
+            } else if (!Character.isWhitespace(c)) {
+                return IRREGULAR;
+            }
+        }
+        return length > MAX_PACKED_DIGITS ? IRREGULAR : (byte) length;
+    }
+
+    /**
+     * Packs the digits of the card number into a long, which is unsigned for numbers of 19 digits
+     *
+     * @param number The card number, which packedLength has accepted
+     * @return The digits of the card number
+     */
+    private static long pack(String number) {
+        long packed = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                packed = packed * 10 + (c - '0');
+            }
+        }
+        return packed;
+    }
+
+    // =================================================================================================================
+    // ============================================= Hash Tables =======================================================
+    // =================================================================================================================
+
+    private static int tableCapacity(int entries) {
+        return Integer.highestOneBit(Math.max(entries, MIN_CAPACITY) * 2 - 1) * 2;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int hashId(long high, long low) {
+        return mix(high ^ Long.rotateLeft(low, 32));
+    }
+
+    private static int hashNumber(long number, int length) {
+        return mix(number * 31 + length);
+    }
+
+    private int hashSlot(int slot, boolean byId) {
+        return byId ? hashId(idHigh(slot), idLow(slot)) : hashNumber(number(slot), numberLength(slot));
+    }
+
+    /**
+     * Puts the reserved slot into the id table. Its id is new, so it only needs an empty entry. Must be called while
+     * holding the read side of the resize lock.
+     *
+     * @param slot The slot
+     */
+    private void insertId(int slot) {
+        AtomicIntegerArray table = idTable;
+        int mask                 = table.length() - 1;
+        int i                    = hashSlot(slot, true) & mask;
+        while (!table.compareAndSet(i, EMPTY, slot + 1)) {
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Copies the slots of the table into a larger one, leaving out the tombstones and the released slots. Must be
+     * called while holding the write side of the resize lock.
+     */
+    private AtomicIntegerArray rehash(AtomicIntegerArray table, int capacity, boolean byId) {
+        int[] larger = new int[capacity];
+        int mask     = capacity - 1;
+        for (int index = 0; index < table.length(); index++) {
+            int entry = table.get(index);
+            if (entry == EMPTY || entry == TOMBSTONE || state(entry - 1) == RELEASED) {
+                continue;
+            }
+            int i = hashSlot(entry - 1, byId) & mask;
+            while (larger[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            larger[i] = entry;
+        }
+        return new AtomicIntegerArray(larger);
+    }
+}
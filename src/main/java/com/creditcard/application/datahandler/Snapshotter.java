@@ -0,0 +1,148 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.BanDelta;
+import com.creditcard.application.modules.FileModule;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes periodic snapshots of the database, so the log does not grow forever and startup only has to replay the log
+ * written since the last snapshot. A snapshot is taken once enough records have been written to the log, or once the
+ * interval has passed and something has been written.
+ * <p>
+ * The log is rolled over to a new segment first, while holding the write lock of the database. The cards are then
+ * written to the snapshot in the background, while new cards are appended to the new segment. A card that is inserted
+ * while the snapshot is written can end up in both, which is fine, as loading it twice gives the same card.
+ */
+public class Snapshotter implements Closeable {
+
+    // How often the snapshotter checks if a snapshot is due
+    private static final long CHECK_MILLIS = 1000;
+
+    private final CoolTempDatabase database;
+    private final FileModule fileModule;
+    private final WriteAheadLog log;
+    private final long everyRecords;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // The state of the last snapshot, used to decide when the next one is due
+    private long recordsAtSnapshot = 0;
+    private long lastSnapshot      = System.currentTimeMillis();
+
+    // Metrics of the snapshots that have been taken
+    private volatile long snapshots          = 0;
+    private volatile long lastSnapshotMillis = 0;
+    private volatile long lastSnapshotBytes  = 0;
+
+    /**
+     * Creates the snapshotter, which only checks for snapshots in the background once it is started
+     *
+     * @param database       The database to be snapshotted
+     * @param fileModule     The module that writes the snapshots and manages the log segments
+     * @param log            The log attached to the database
+     * @param everyRecords   The number of records written to the log after which a snapshot is taken, or 0 to disable
+     * @param intervalMillis The time after which a snapshot is taken if anything was written, or 0 to disable
+     */
+    public Snapshotter(CoolTempDatabase database, FileModule fileModule, WriteAheadLog log, long everyRecords,
+                       long intervalMillis) {
+        this.database       = database;
+        this.fileModule     = fileModule;
+        this.log            = log;
+        this.everyRecords   = everyRecords;
+        this.intervalMillis = intervalMillis;
+        this.scheduler      = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts checking for snapshots in the background
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::checkSnapshot, CHECK_MILLIS, CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a snapshot if enough records have been written or the interval has passed
+     */
+    private void checkSnapshot() {
+        long written = log.getWrittenRecords() - recordsAtSnapshot;
+        long elapsed = System.currentTimeMillis() - lastSnapshot;
+        if ((everyRecords > 0 && written >= everyRecords)
+                || (intervalMillis > 0 && written > 0 && elapsed >= intervalMillis)) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Rolls the log over to a new segment and writes everything before it to a snapshot, which replaces the old
+     * segments
+     */
+    public synchronized void snapshot() {
+        long start = System.nanoTime();
+        try {
+            long records          = log.getWrittenRecords();
+            long segment          = fileModule.nextSegment();
+            List<BanDelta> deltas = database.rollLog(fileModule.resource(FileModule.SEGMENT_PREFIX, segment));
+            long bytes            = fileModule.saveSnapshot(segment,
+                    () -> database.iterateCards(null, CardOrder.INSERTION), deltas);
+
+            recordsAtSnapshot  = records;
+            lastSnapshot       = System.currentTimeMillis();
+            lastSnapshotMillis = (System.nanoTime() - start) / 1_000_000;
+            lastSnapshotBytes  = bytes;
+            snapshots++;
+            System.out.printf("[INFO] - Took snapshot %d of %d cards (%d bytes) in %dms%n", segment,
+                    database.getCardCount(), bytes, lastSnapshotMillis);
+        } catch (Exception ex) {
+            System.out.println("[ERROR] - Could not take a snapshot. " + ex);
+        }
+    }
+
+    /**
+     * The number of snapshots that have been taken since startup
+     *
+     * @return The number of snapshots
+     */
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * How long the last snapshot took, from rolling the log to deleting the old segments
+     *
+     * @return The duration in milliseconds
+     */
+    public long getLastSnapshotMillis() {
+        return lastSnapshotMillis;
+    }
+
+    /**
+     * The size of the last snapshot that was written
+     *
+     * @return The size in bytes
+     */
+    public long getLastSnapshotBytes() {
+        return lastSnapshotBytes;
+    }
+
+    /**
+     * Stops taking snapshots, waiting for a snapshot that is being written
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
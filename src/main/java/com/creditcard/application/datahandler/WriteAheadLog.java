@@ -0,0 +1,429 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.exceptions.SaveCardsException;
+import com.creditcard.application.modules.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append only log that groups the writes of concurrent requests together. A single writer thread drains all the
+ * pending writes, writes them with one call and then forces them to the disk depending on the Durability. The
+ * requests are only acknowledged once their write has been completed.
+ * <p>
+ * A write that fails is cut back off the file, so a record that was reported as not saved never comes back when the
+ * log is loaded. If even that fails, the end of the file is unknown and the log refuses every write after it.
+ *
+ * @see Durability
+ */
+public class WriteAheadLog implements Closeable {
+
+    // The most writes that will be grouped into a single write to the file
+    private static final int MAX_BATCH = 1024;
+
+    // How long the writer waits for new writes before checking if it has to sync or stop
+    private static final long POLL_MILLIS = 100;
+
+    private static final Metrics.Timer APPENDS = Metrics.timer("log_append_seconds",
+            "The time taken to save records to the log, including the wait for them to be written and synced");
+
+    private final Opener opener;
+    private final byte[] header;
+    private final Durability durability;
+    private final long syncIntervalMillis;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    // Set once a failed write could not be removed from the file, after which nothing else is written
+    private volatile IOException failure;
+
+    // The number of records that have been written, used to decide when to take a snapshot
+    private final AtomicLong writtenRecords = new AtomicLong();
+
+    // Only accessed by the writer thread, or once it has stopped
+    private FileChannel channel;
+    private boolean isDirty = false;
+    private long lastSync   = System.currentTimeMillis();
+
+    /**
+     * A write that is waiting for the writer thread, along with the future that completes once it is written. A write
+     * with a rollTo path instead of data asks the writer to continue in that file.
+     */
+    private record PendingWrite(ByteBuffer data, int records, Path rollTo, CompletableFuture<Void> done) {
+    }
+
+    /**
+     * Opens a file of the log for appending
+     */
+    @FunctionalInterface
+    interface Opener {
+        /**
+         * Opens the file, creating it if it does not exist
+         *
+         * @param path The file to be opened
+         * @return The channel, which appends to the file
+         * @throws IOException If the file could not be opened
+         */
+        FileChannel open(Path path) throws IOException;
+    }
+
+    /**
+     * Opens the log file for appending and starts the writer thread
+     *
+     * @param path               The file that the writes are appended to
+     * @param header             The bytes that every new log file starts with
+     * @param durability         When the writes are forced to the disk
+     * @param syncIntervalMillis The time between syncs when the Durability is INTERVAL
+     * @throws IOException If the file could not be opened
+     */
+    public WriteAheadLog(Path path, byte[] header, Durability durability, long syncIntervalMillis)
+            throws IOException {
+        this(path, header, durability, syncIntervalMillis, WriteAheadLog::openForAppend);
+    }
+
+    /**
+     * Opens the log file with the opener for appending and starts the writer thread
+     *
+     * @param path               The file that the writes are appended to
+     * @param header             The bytes that every new log file starts with
+     * @param durability         When the writes are forced to the disk
+     * @param syncIntervalMillis The time between syncs when the Durability is INTERVAL
+     * @param opener             Opens the files of the log
+     * @throws IOException If the file could not be opened
+     */
+    WriteAheadLog(Path path, byte[] header, Durability durability, long syncIntervalMillis, Opener opener)
+            throws IOException {
+        this.opener             = opener;
+        this.header             = header;
+        this.channel            = open(path);
+        this.durability         = durability;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.writer             = new Thread(this::writeLoop, "write-ahead-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Appends all the records to the log and waits until they have been written
+     *
+     * @param records The encoded records to be appended, in order
+     * @throws SaveCardsException If any of the records could not be written
+     */
+    public void append(List<byte[]> records) throws SaveCardsException {
+        int size = 0;
+        for (byte[] record : records) {
+            size += record.length;
+        }
+
+        // Join the records, so they are written as one and can never be split by other writes
+        long start        = System.nanoTime();
+        ByteBuffer joined = ByteBuffer.allocate(size);
+        records.forEach(joined::put);
+        try {
+            await(enqueue(joined.flip(), records.size(), null));
+        } finally {
+            APPENDS.recordSince(start);
+        }
+    }
+
+    /**
+     * Continues the log in a new file. All the writes that were queued before the roll end up in the old file and all
+     * the writes after it end up in the new file.
+     *
+     * @param next The file that the log continues in
+     * @throws IOException If the old file could not be closed or the new file could not be opened
+     */
+    public void roll(Path next) throws IOException {
+        try {
+            await(enqueue(null, 0, next));
+        } catch (SaveCardsException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * The number of records that have been written since the log was opened
+     *
+     * @return The number of records
+     */
+    public long getWrittenRecords() {
+        return writtenRecords.get();
+    }
+
+    /**
+     * Waits for the queued write to complete
+     *
+     * @param done The future of the queued write
+     * @throws SaveCardsException If the write failed
+     */
+    private void await(CompletableFuture<Void> done) throws SaveCardsException {
+        try {
+            done.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SaveCardsException("Interrupted while waiting for the card to be saved.");
+        } catch (ExecutionException ex) {
+            throw new SaveCardsException("Could not save the card: " + ex.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Queues the write for the writer thread, unless the log has been closed
+     *
+     * @param data    The data to be written, or null when rolling
+     * @param records The number of records in the data
+     * @param rollTo  The file to continue the log in, or null when writing
+     * @return A future that completes once the write has been done
+     */
+    private CompletableFuture<Void> enqueue(ByteBuffer data, int records, Path rollTo) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (queue) {
+            if (!running || failure != null) {
+                done.completeExceptionally(failure != null ? failure : new IOException("The log has been closed."));
+                return done;
+            }
+            queue.add(new PendingWrite(data, records, rollTo, done));
+        }
+        return done;
+    }
+
+    /**
+     * Takes the pending writes off the queue and writes them in groups until the log is closed
+     */
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        long pollMillis          = durability == Durability.INTERVAL ? syncIntervalMillis : POLL_MILLIS;
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Nothing new has arrived, so make sure the earlier writes reach the disk
+                    if (durability == Durability.INTERVAL && isDirty) {
+                        sync();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                write(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException ex) {
+                System.out.println("[ERROR] - Could not sync the log. " + ex);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the group of pending writes to the file and completes their futures. A roll in the group is done once
+     * all the writes before it have been written.
+     *
+     * @param batch The pending writes
+     */
+    private void write(List<PendingWrite> batch) {
+        int start = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).rollTo() != null) {
+                writeAll(batch.subList(start, i));
+                roll(batch.get(i));
+                start = i + 1;
+            }
+        }
+        writeAll(batch.subList(start, batch.size()));
+    }
+
+    /**
+     * Writes the pending writes to the file with a single call and completes their futures
+     *
+     * @param writes The pending writes, none of which are a roll
+     */
+    private void writeAll(List<PendingWrite> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        if (failure != null) {
+            writes.forEach(pending -> pending.done().completeExceptionally(failure));
+            return;
+        }
+
+        // The log is only ever appended to, so the writes start at the current end of the file
+        long end = -1;
+        try {
+            end                  = channel.size();
+            ByteBuffer[] buffers = new ByteBuffer[writes.size()];
+            int records          = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = writes.get(i).data();
+                records   += writes.get(i).records();
+            }
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            isDirty = true;
+
+            long now = System.currentTimeMillis();
+            if (durability == Durability.BATCH
+                    || (durability == Durability.INTERVAL && now - lastSync >= syncIntervalMillis)) {
+                sync();
+            }
+            writtenRecords.addAndGet(records);
+            writes.forEach(pending -> pending.done().complete(null));
+        } catch (IOException ex) {
+            discard(end, ex);
+            writes.forEach(pending -> pending.done().completeExceptionally(ex));
+        }
+    }
+
+    /**
+     * Cuts the file back to where the failed writes started, so none of their records are left behind for the next
+     * load. If that fails as well, the log stops accepting writes.
+     *
+     * @param end   The end of the file before the failed writes, or -1 if it could not be read
+     * @param cause The reason the writes failed
+     */
+    private void discard(long end, IOException cause) {
+        try {
+            if (end < 0) {
+                throw new IOException("The end of the log is unknown.");
+            }
+            channel.truncate(end);
+        } catch (IOException ex) {
+            failure = new IOException("The log stopped accepting writes, as a failed write could not be removed from "
+                    + "it: " + ex.getMessage(), cause);
+            System.out.println("[ERROR] - " + failure.getMessage());
+        }
+    }
+
+    /**
+     * Forces the current file to the disk, closes it and continues the log in the new file. The current file is forced
+     * before the new file is opened, so a failed roll leaves nothing behind and the log carries on in the current file,
+     * unless it was the close of the current file that failed.
+     *
+     * @param pending The pending roll
+     */
+    private void roll(PendingWrite pending) {
+        if (failure != null) {
+            pending.done().completeExceptionally(failure);
+            return;
+        }
+        try {
+            sync();
+            boolean isNew    = Files.notExists(pending.rollTo());
+            FileChannel next = open(pending.rollTo());
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // The current file is closed either way, so there is nowhere left to write to
+                abandon(next, isNew ? pending.rollTo() : null, ex);
+                failure = new IOException("The log stopped accepting writes, as its file could not be closed when "
+                        + "rolling over: " + ex.getMessage(), ex);
+                System.out.println("[ERROR] - " + failure.getMessage());
+                throw ex;
+            }
+            channel = next;
+            pending.done().complete(null);
+        } catch (IOException ex) {
+            pending.done().completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Opens the file for appending and writes the header if the file is new. If the header could not be written, the
+     * file is closed and removed again.
+     *
+     * @param path The file to be opened
+     * @return The opened channel
+     * @throws IOException If the file could not be opened
+     */
+    private FileChannel open(Path path) throws IOException {
+        FileChannel opened = opener.open(path);
+        try {
+            if (opened.size() == 0) {
+                ByteBuffer data = ByteBuffer.wrap(header);
+                while (data.hasRemaining()) {
+                    opened.write(data);
+                }
+                opened.force(true);
+            }
+        } catch (IOException ex) {
+            abandon(opened, path, ex);
+            throw ex;
+        }
+        return opened;
+    }
+
+    /**
+     * Closes a file that the log will not continue in, and removes it if the log created it
+     *
+     * @param opened The channel of the file
+     * @param path   The file to be removed, or null to keep it
+     * @param cause  The reason the file is abandoned, which any further failure is added to
+     */
+    private static void abandon(FileChannel opened, Path path, IOException cause) {
+        try {
+            opened.close();
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException ex) {
+            cause.addSuppressed(ex);
+        }
+    }
+
+    private static FileChannel openForAppend(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Forces the written data to the disk
+     *
+     * @throws IOException If the data could not be forced to the disk
+     */
+    private void sync() throws IOException {
+        channel.force(false);
+        isDirty  = false;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Stops accepting writes, waits for the pending writes to be written and closes the file
+     *
+     * @throws IOException If the file could not be synced or closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (queue) {
+            running = false;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!channel.isOpen()) {
+            return;
+        }
+        if (durability != Durability.NONE) {
+            channel.force(false);
+        }
+        channel.close();
+    }
+}
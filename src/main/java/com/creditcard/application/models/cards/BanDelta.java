@@ -0,0 +1,19 @@
+package com.creditcard.application.models.cards;
+
+import lombok.Data;
+
+/**
+ * A single change to the banned countries, which is journaled so the banned list can be rebuilt when loading
+ */
+@Data
+public class BanDelta {
+    String country;
+    boolean isBanned;
+    long timestamp;
+
+    public BanDelta(String country, boolean isBanned, long timestamp) {
+        this.country   = country;
+        this.isBanned  = isBanned;
+        this.timestamp = timestamp;
+    }
+}
@@ -11,8 +11,11 @@ import java.util.UUID;
 public class CreditCard {
     private String cardNumber;
     private String cardHolder;
-    private UUID id = UUID.randomUUID();
+    // Assigned by the database when the card is inserted. Generating it here would make every card that is loaded
+    // from the file draw a random UUID, which contends on the shared SecureRandom when loading in parallel.
+    private UUID id;
     // This is the data from the 3rd party api.
     private CardResponse details;
-    private Boolean isBanned = false;
+    // Flipped by the ban/unban requests while other threads read it, so it must be visible to them straight away
+    private volatile Boolean isBanned = false;
 }
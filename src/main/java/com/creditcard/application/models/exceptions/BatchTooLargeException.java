@@ -0,0 +1,10 @@
+package com.creditcard.application.models.exceptions;
+
+/**
+ * A class for any Exceptions that are related to a batch having more cards than can be imported at once
+ */
+public class BatchTooLargeException extends Exception {
+    public BatchTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.creditcard.application.models.exceptions;
+
+/**
+ * A class for any Exceptions that are related to the query parameters of a request being invalid
+ */
+public class InvalidQueryException extends Exception {
+    public InvalidQueryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.creditcard.application.models.exceptions;
+
+/**
+ * A class for any Exceptions that are related to saving cards to the text file
+ */
+public class SaveCardsException extends Exception {
+
+    public SaveCardsException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,21 @@
+package com.creditcard.application.models.responses;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The response of a batch import, with the result of every card in the same order as they were submitted
+ */
+@Data
+public class BatchResponse {
+    int accepted;
+    int rejected;
+    List<BatchResult> results;
+
+    public BatchResponse(int accepted, int rejected, List<BatchResult> results) {
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.results  = results;
+    }
+}
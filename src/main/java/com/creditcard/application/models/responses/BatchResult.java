@@ -0,0 +1,22 @@
+package com.creditcard.application.models.responses;
+
+import com.creditcard.application.models.cards.CreditCard;
+import lombok.Data;
+
+/**
+ * The result of a single card in a batch import, which is either the created card or the reason it was rejected
+ */
+@Data
+public class BatchResult {
+    int index;
+    int statusCode;
+    CreditCard card;
+    ResponseError error;
+
+    public BatchResult(int index, int statusCode, CreditCard card, ResponseError error) {
+        this.index      = index;
+        this.statusCode = statusCode;
+        this.card       = card;
+        this.error      = error;
+    }
+}
@@ -0,0 +1,47 @@
+package com.creditcard.application.models.responses;
+
+import com.creditcard.application.models.cards.CreditCard;
+import lombok.Data;
+
+/**
+ * The result of inserting a single card, which is either the created card or the reason it was rejected
+ */
+@Data
+public class CardResult {
+    CreditCard card;
+    Rejection rejection;
+
+    private CardResult(CreditCard card, Rejection rejection) {
+        this.card      = card;
+        this.rejection = rejection;
+    }
+
+    /**
+     * The result of a card that was inserted
+     *
+     * @param card The created CreditCard
+     * @return The result of the card
+     */
+    public static CardResult accepted(CreditCard card) {
+        return new CardResult(card, null);
+    }
+
+    /**
+     * The result of a card that was rejected
+     *
+     * @param rejection The reason the card was rejected
+     * @return The result of the card
+     */
+    public static CardResult rejected(Rejection rejection) {
+        return new CardResult(null, rejection);
+    }
+
+    /**
+     * Checks if the card was inserted
+     *
+     * @return If the card was inserted
+     */
+    public boolean isAccepted() {
+        return rejection == null;
+    }
+}
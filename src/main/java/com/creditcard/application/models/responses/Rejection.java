@@ -0,0 +1,31 @@
+package com.creditcard.application.models.responses;
+
+/**
+ * The reasons that a card can be rejected for. A rejection is an expected result of validating a card rather than an
+ * error, so it is returned instead of thrown, and its error response is only built once.
+ *
+ * @see com.creditcard.application.modules.ErrorHandler#handleRejection(Rejection)
+ */
+public enum Rejection {
+    INVALID_NUMBER("The card number provided is invalid."),
+    FAILED_CHECKSUM("The card number provided fails its checksum."),
+    UNKNOWN_SCHEME("The card number provided does not belong to a supported card scheme."),
+    UNKNOWN_BIN("There are no card details for the BIN of the card number."),
+    DUPLICATE("The card already exists."),
+    BANNED("The country is banned");
+
+    private final String message;
+
+    Rejection(String message) {
+        this.message = message;
+    }
+
+    /**
+     * The reason that the card was rejected
+     *
+     * @return The message of the rejection
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -1,11 +1,12 @@
 package com.creditcard.application.models.responses;
 
-import lombok.Data;
+import lombok.Value;
 
 /**
- * This represents an error response that contains the relevant information for the error
+ * This represents an error response that contains the relevant information for the error. It can not be changed once
+ * it is built, as the errors of the rejections are shared by every response.
  */
-@Data
+@Value
 public class ResponseError {
     int StatusCode;
     String description;
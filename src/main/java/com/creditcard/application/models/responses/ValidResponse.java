@@ -3,14 +3,21 @@ package com.creditcard.application.models.responses;
 import com.creditcard.application.models.cards.CardResponse;
 
 /**
- * Once a CreditCard is accepted, this model is used to wrap the data for easy access later
+ * Once a CreditCard is validated, this model is used to wrap the data for easy access later. A valid card has its card
+ * details, and an invalid card has the reason it was rejected.
  */
 public class ValidResponse {
     public boolean isValid;
     public CardResponse cardDetails;
+    public Rejection rejection;
 
-    public ValidResponse(boolean isValid, CardResponse cardDetails) {
-        this.isValid     = isValid;
+    public ValidResponse(CardResponse cardDetails) {
+        this.isValid     = true;
         this.cardDetails = cardDetails;
     }
+
+    public ValidResponse(Rejection rejection) {
+        this.isValid   = false;
+        this.rejection = rejection;
+    }
 }
@@ -0,0 +1,21 @@
+package com.creditcard.application.modules;
+
+import com.creditcard.application.models.cards.CardResponse;
+
+/**
+ * Looks up the card details of a BIN, which is the prefix of the card number that identifies the bank
+ *
+ * @see HttpBinProvider
+ * @see LocalBinProvider
+ */
+public interface BinProvider {
+
+    /**
+     * Looks up the card details of the BIN
+     *
+     * @param bin The first digits of the card number
+     * @return The card details, or null if the BIN is unknown
+     * @throws Exception If the lookup failed, which says nothing about whether the BIN is known
+     */
+    CardResponse lookup(String bin) throws Exception;
+}
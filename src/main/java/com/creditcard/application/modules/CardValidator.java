@@ -0,0 +1,157 @@
+package com.creditcard.application.modules;
+
+import com.creditcard.application.datahandler.BinCache;
+import com.creditcard.application.models.responses.Rejection;
+
+/**
+ * Checks the card numbers that are submitted before anything is looked up for them, so numbers that can never be valid
+ * are rejected without a BIN lookup or a duplicate check.
+ * <p>
+ * The digits of a card number are parsed once into a long, which fits every card number, and all the checks are done
+ * on that long. This way no Strings are created for a card number, apart from its BIN once it has passed.
+ */
+public final class CardValidator {
+
+    // The number of digits of a card number
+    public static final int CARD_DIGITS = 16;
+
+    // Returned when the card number is not made up of the right number of digits
+    public static final long INVALID = -1;
+
+    // The number of leading digits that the card schemes are recognised by
+    private static final int SCHEME_DIGITS = 4;
+
+    // The ranges of leading digits of the card schemes that issue cards of 16 digits, as pairs of low and high ends.
+    // Those are Visa, Mastercard, Mir, Discover, UnionPay and JCB.
+    private static final int[] SCHEME_RANGES = {
+            4000, 4999,
+            5100, 5599,
+            2221, 2720,
+            2200, 2204,
+            6011, 6011,
+            6440, 6599,
+            6200, 6299,
+            3528, 3589
+    };
+
+    private static final long SCHEME_DIVISOR = pow10(CARD_DIGITS - SCHEME_DIGITS);
+    private static final long BIN_DIVISOR    = pow10(CARD_DIGITS - BinCache.BIN_DIGITS);
+
+    private CardValidator() {
+    }
+
+    /**
+     * Checks the parsed card number, without throwing anything for a card number that is rejected
+     *
+     * @param digits The parsed card number, which may be {@link #INVALID}
+     * @return The reason the card number is rejected, or null if it is valid
+     */
+    public static Rejection check(long digits) {
+        if (digits == INVALID) {
+            return Rejection.INVALID_NUMBER;
+        }
+        if (!isLuhnValid(digits)) {
+            return Rejection.FAILED_CHECKSUM;
+        }
+        if (!isKnownScheme(digits)) {
+            return Rejection.UNKNOWN_SCHEME;
+        }
+        return null;
+    }
+
+    /**
+     * Parses the digits of the card number, skipping any whitespace between them
+     *
+     * @param number The card number as it was submitted, which may be null
+     * @return The digits of the card number, or {@link #INVALID} if it has anything other than digits and whitespace
+     * or does not have exactly {@link #CARD_DIGITS} digits
+     */
+    public static long parse(String number) {
+        if (number == null) {
+            return INVALID;
+        }
+        long digits = 0;
+        int length  = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // Stop before a number that is too long can overflow the long
+                if (++length > CARD_DIGITS) {
+                    return INVALID;
+                }
+                digits = digits * 10 + (c - '0');
+            } else if (!Character.isWhitespace(c)) {
+                return INVALID;
+            }
+        }
+        return length == CARD_DIGITS ? digits : INVALID;
+    }
+
+    /**
+     * Checks the Luhn checksum of the card number, which catches every mistyped digit and most swapped digits
+     *
+     * @param digits The parsed card number
+     * @return If the checksum is valid
+     */
+    public static boolean isLuhnValid(long digits) {
+        int sum = 0;
+        for (int i = 0; i < CARD_DIGITS; i++) {
+            int digit = (int) (digits % 10);
+            digits /= 10;
+            // Every second digit from the right is doubled, and the digits of the result are added up
+            if ((i & 1) == 1) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+        }
+        return sum % 10 == 0;
+    }
+
+    /**
+     * Checks if the card number starts with the leading digits of a card scheme that issues cards of 16 digits
+     *
+     * @param digits The parsed card number
+     * @return If the card number belongs to a known card scheme
+     */
+    public static boolean isKnownScheme(long digits) {
+        long prefix = digits / SCHEME_DIVISOR;
+        for (int i = 0; i < SCHEME_RANGES.length; i += 2) {
+            if (prefix >= SCHEME_RANGES[i] && prefix <= SCHEME_RANGES[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fetches the BIN of the parsed card number. None of the card schemes start with a 0, so the BIN always has all
+     * its digits.
+     *
+     * @param digits The parsed card number
+     * @return The first digits of the card number
+     */
+    public static String binOf(long digits) {
+        return Long.toString(digits / BIN_DIVISOR);
+    }
+
+    /**
+     * Formats the parsed card number the way the card numbers are kept, which is without any whitespace
+     *
+     * @param digits The parsed card number
+     * @return The card number
+     */
+    public static String toNumber(long digits) {
+        return Long.toString(digits);
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+}
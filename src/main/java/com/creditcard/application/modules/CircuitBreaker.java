@@ -0,0 +1,102 @@
+package com.creditcard.application.modules;
+
+/**
+ * Stops calling an upstream service that keeps failing, so the requests fail fast instead of all waiting for it to
+ * time out.
+ * <p>
+ * The breaker opens once the configured number of calls in a row have failed. While it is open every call is refused.
+ * Once the open time has passed a single trial call is let through, which closes the breaker again if it succeeds and
+ * opens it for another period if it fails.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        // Calls are let through as usual
+        CLOSED,
+        // Calls are refused until the open time has passed
+        OPEN,
+        // A single trial call has been let through and the others are refused until it is done
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    // Guarded by this
+    private State state        = State.CLOSED;
+    private int failures       = 0;
+    private long openedAt      = 0;
+    private long rejectedCalls = 0;
+
+    /**
+     * Creates a closed breaker
+     *
+     * @param failureThreshold The number of failed calls in a row that open the breaker
+     * @param openMillis       How long the breaker stays open before a trial call is let through
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis       = openMillis;
+    }
+
+    /**
+     * Checks if a call may be made. A call that is allowed has to report if it succeeded or failed.
+     *
+     * @return If the call may be made
+     */
+    public synchronized boolean allowCall() {
+        switch (state) {
+            case CLOSED -> {
+                return true;
+            }
+            case OPEN -> {
+                if (System.currentTimeMillis() - openedAt >= openMillis) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+            }
+            case HALF_OPEN -> {
+            }
+        }
+        rejectedCalls++;
+        return false;
+    }
+
+    /**
+     * Reports that an allowed call succeeded, which closes the breaker
+     */
+    public synchronized void recordSuccess() {
+        state    = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * Reports that an allowed call failed, which opens the breaker if there have been too many failures in a row or if
+     * it was the trial call
+     */
+    public synchronized void recordFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state    = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The current state of the breaker
+     *
+     * @return The state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * The number of calls that were refused because the breaker was open
+     *
+     * @return The number of refused calls
+     */
+    public synchronized long getRejectedCalls() {
+        return rejectedCalls;
+    }
+}
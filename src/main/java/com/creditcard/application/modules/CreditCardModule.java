@@ -1,77 +1,84 @@
 package com.creditcard.application.modules;
 
+import com.creditcard.application.datahandler.BinCache;
+import com.creditcard.application.datahandler.CardOrder;
 import com.creditcard.application.datahandler.CoolTempDatabase;
+import com.creditcard.application.datahandler.JsonCodec;
 import com.creditcard.application.models.cards.CardCreate;
 import com.creditcard.application.models.cards.CardResponse;
 import com.creditcard.application.models.cards.CountryList;
 import com.creditcard.application.models.cards.CreditCard;
 import com.creditcard.application.models.exceptions.BannedCountryException;
-import com.creditcard.application.models.exceptions.DuplicateCardException;
-import com.creditcard.application.models.exceptions.InvalidCardException;
+import com.creditcard.application.models.exceptions.BatchTooLargeException;
+import com.creditcard.application.models.exceptions.InvalidQueryException;
+import com.creditcard.application.models.exceptions.SaveCardsException;
 import com.creditcard.application.models.exceptions.UnBannedCountryException;
+import com.creditcard.application.models.responses.BatchResponse;
+import com.creditcard.application.models.responses.BatchResult;
+import com.creditcard.application.models.responses.CardResult;
+import com.creditcard.application.models.responses.Rejection;
+import com.creditcard.application.models.responses.ResponseError;
 import com.creditcard.application.models.responses.ValidResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import spark.Request;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static javax.servlet.http.HttpServletResponse.SC_OK;
 
 /**
  * Has all the functionality for the CreditCards and the Countries
  */
 public class CreditCardModule {
 
-    CoolTempDatabase database;
+    // The most cards that are returned in a single page
+    private static final int MAX_PAGE_SIZE = 1000;
 
-    public CreditCardModule(CoolTempDatabase database) {
-        this.database = database;
-    }
+    // The most cards that can be imported in a single batch
+    static final int MAX_BATCH_SIZE = 100_000;
 
+    // The number of BINs of a batch that are looked up at the same time
+    private static final int LOOKUP_THREADS = 16;
 
-    /**
-     * Makes a request to the provided URL and if there is a OK response it processes the response.
-     *
-     * @param url The URL that the request will be pinging
-     * @return The JSON of the response
-     * @throws Exception Any errors that occur that will be caught by the main class.
-     */
-    public String getJSON(URL url) throws Exception {
-        HttpURLConnection response = null;
-        try {
-            // Set the request properties and make the request to the URL
-            response = (HttpURLConnection) url.openConnection();
-            response.setRequestMethod("GET");
-            response.setRequestProperty("Content-length", "0");
-            response.setUseCaches(false);
-            response.setAllowUserInteraction(false);
-            response.connect();
-            int status = response.getResponseCode();
-
-            // If there is an OK status then process the response
-            switch (status) {
-                case 200, 201 -> {
-                    BufferedReader br = new BufferedReader(new InputStreamReader(response.getInputStream()));
-                    StringBuilder sb  = new StringBuilder();
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        sb.append(line).append("\n");
-                    }
-                    br.close();
-                    return sb.toString();
-                }
-            }
-        } finally {
-            if (response != null) {
-                response.disconnect();
-            }
-        }
-        return null;
+    private static final Metrics.Timer BIN_LOOKUPS = Metrics.timer("bin_lookup_seconds",
+            "The time taken to look up the card details of a BIN that was not cached");
+
+    CoolTempDatabase database;
+    BinCache binCache;
+    BinProvider binProvider;
+
+    // Turns the reasons that the cards of a batch were rejected into the same errors as a single insert
+    private final ErrorHandler errorHandler = new ErrorHandler();
+    private final ExecutorService lookupPool;
+
+    public CreditCardModule(CoolTempDatabase database, BinCache binCache, BinProvider binProvider) {
+        this.database    = database;
+        this.binCache    = binCache;
+        this.binProvider = binProvider;
+        this.lookupPool  = Executors.newFixedThreadPool(LOOKUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "bin-lookup");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
+
     // =================================================================================================================
     // =============================================== Credit Cards ====================================================
     // =================================================================================================================
@@ -80,55 +87,285 @@ public class CreditCardModule {
      * Inserts the card into the list of cards in memory.
      *
      * @param request The request that contains the body for the CreditCard
-     * @return The created CreditCard
-     * @throws Exception Any errors that occur that will be caught by the main class
+     * @return The created CreditCard, or the reason it was rejected
+     * @throws Exception Any errors that occur that will be caught by the main class, which does not include the card
+     *                   being rejected
      * @implNote Usually this would insert into the DB. But for this case it is passed back to main and then written to
      * the cards.txt file
      */
-    public CreditCard insertCreditCard(Request request) throws Exception {
-        CardCreate creation     = new ObjectMapper().readValue(request.body(), CardCreate.class);
+    public CardResult insertCreditCard(Request request) throws Exception {
+        CardCreate creation     = JsonCodec.read(request.body(), CardCreate.class);
         ValidResponse validCard = validateCard(creation);
 
         if (!validCard.isValid) {
-            throw new InvalidCardException();
+            return CardResult.rejected(validCard.rejection);
         }
 
         return database.insertCreditCard(creation, validCard.cardDetails);
     }
 
     /**
-     * This function is responsible for ensuring that the credit card submitted is a valid card based on the
-     * provided criteria.
+     * Imports a batch of cards, which are sent as a json array or as one json object per line. The cards go through
+     * the same checks as a single insert, but the checks that need no lookup are done first, every BIN is only looked
+     * up once and the BINs are looked up concurrently. The accepted cards are then inserted with a single write.
      *
-     * @param create The body of the create CreditCard
-     * @return If the create body is valid or not
-     * @throws Exception Any errors that occur that will be caught by the main class.
+     * @param request The request that contains the cards to be imported
+     * @return The result of every card, in the order they were sent
+     * @throws IOException            If the body is not valid json
+     * @throws BatchTooLargeException If there are more cards than can be imported at once
+     * @throws SaveCardsException     If the accepted cards could not be saved, in which case none are inserted
      */
-    private ValidResponse validateCard(CardCreate create) throws Exception {
+    public BatchResponse insertCreditCards(Request request)
+            throws IOException, BatchTooLargeException, SaveCardsException {
+        // The values are bound one at a time rather than with readValues, so a null in the array becomes a null card
+        // that is rejected on its own instead of failing the whole batch
+        List<CardCreate> creates = new ArrayList<>();
+        ObjectReader reader      = JsonCodec.reader(CardCreate.class);
+        try (JsonParser parser = reader.createParser(request.bodyAsBytes())) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                if (creates.size() == MAX_BATCH_SIZE) {
+                    throw new BatchTooLargeException("A batch can have at most " + MAX_BATCH_SIZE + " cards.");
+                }
+                creates.add(reader.readValue(parser));
+                token = parser.nextToken();
+            }
+        }
 
-        String cardNumber = create.getCardNumber().replace(" ", "");
-        String digits     = cardNumber.substring(0, 9);
-
-        URL url     = new URL("https://lookup.binlist.net/" + digits);
-        String json = getJSON(url);
-
-        // Map the response to the card and get the validation criteria
-        CardResponse cardDetails = new ObjectMapper().readValue(json, CardResponse.class);
-        boolean isBanned         = database.isBanned(cardDetails.getCountry().getName());
-        boolean isDuplicate      = database.isCardDuplicate(cardNumber);
-        if (isDuplicate) {
-            throw new DuplicateCardException();
-        } else {
-            if (cardNumber.length() == 16) {
-                if (!isBanned) {
-                    return new ValidResponse(true, cardDetails);
+        // Reject the invalid and saved cards first and start a single lookup for each BIN of the others. A null in the
+        // array is rejected like a card without a number. A card that is repeated in the batch is only rejected once
+        // the first copy has been accepted, when the batch is inserted, so both copies get the same result otherwise.
+        BatchResult[] results                                = new BatchResult[creates.size()];
+        Map<String, CompletableFuture<CardResponse>> lookups = new HashMap<>();
+        long[] digits                                        = new long[creates.size()];
+        for (int i = 0; i < creates.size(); i++) {
+            CardCreate create   = creates.get(i);
+            digits[i]           = CardValidator.parse(create == null ? null : create.getCardNumber());
+            Rejection rejection = CardValidator.check(digits[i]);
+            if (rejection != null) {
+                results[i] = rejected(i, rejection);
+            } else if (database.isCardDuplicate(CardValidator.toNumber(digits[i]))) {
+                results[i] = rejected(i, Rejection.DUPLICATE);
+            } else {
+                lookups.computeIfAbsent(CardValidator.binOf(digits[i]), this::lookupAsync);
+            }
+        }
+
+        // Check the card details of the remaining cards as their lookups complete
+        List<CreditCard> accepted = new ArrayList<>();
+        List<Integer> indexes     = new ArrayList<>();
+        for (int i = 0; i < creates.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            String bin = CardValidator.binOf(digits[i]);
+            try {
+                CardResponse details = lookups.get(bin).join();
+                if (details == null) {
+                    results[i] = rejected(i, Rejection.UNKNOWN_BIN);
+                } else if (database.isBanned(details.getCountry() == null ? null : details.getCountry().getName())) {
+                    results[i] = rejected(i, Rejection.BANNED);
                 } else {
-                    throw new BannedCountryException();
+                    accepted.add(database.newCreditCard(creates.get(i), details));
+                    indexes.add(i);
                 }
-            } else {
-                throw new InvalidCardException("The card number provided is invalid.");
+            } catch (CompletionException ex) {
+                results[i] = rejected(i, ex.getCause() instanceof Exception cause ? cause : ex);
+            }
+        }
+
+        // Insert all the accepted cards at once, which still rejects any card that became a duplicate or was banned
+        List<Rejection> rejections = database.insertCreditCards(accepted);
+        for (int j = 0; j < accepted.size(); j++) {
+            int index      = indexes.get(j);
+            results[index] = rejections.get(j) == null
+                    ? new BatchResult(index, SC_OK, accepted.get(j), null)
+                    : rejected(index, rejections.get(j));
+        }
+
+        int acceptedCount = (int) Arrays.stream(results).filter(result -> result.getCard() != null).count();
+        return new BatchResponse(acceptedCount, results.length - acceptedCount, Arrays.asList(results));
+    }
+
+    /**
+     * Looks up the card details of the BIN on the lookup pool, through the BIN cache
+     *
+     * @param bin The BIN to look up
+     * @return A future of the card details, which are null if the BIN is unknown
+     */
+    private CompletableFuture<CardResponse> lookupAsync(String bin) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return binCache.get(bin, () -> lookup(bin));
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, lookupPool);
+    }
+
+    /**
+     * Looks up the card details of the BIN with the provider, which is only done when the BIN is not cached
+     *
+     * @param bin The BIN to look up
+     * @return The card details, which are null if the BIN is unknown
+     * @throws Exception Any errors of the lookup
+     */
+    private CardResponse lookup(String bin) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return binProvider.lookup(bin);
+        } finally {
+            BIN_LOOKUPS.recordSince(start);
+        }
+    }
+
+    /**
+     * Creates the result of a card in a batch that could not be checked
+     *
+     * @param index The index of the card in the batch
+     * @param ex    The reason the card could not be checked
+     * @return The result of the card
+     */
+    private BatchResult rejected(int index, Exception ex) {
+        ResponseError error = errorHandler.handleException(ex);
+        return new BatchResult(index, error.getStatusCode(), null, error);
+    }
+
+    /**
+     * Creates the result of a card in a batch that was rejected, which shares the error of the rejection
+     *
+     * @param index     The index of the card in the batch
+     * @param rejection The reason the card was rejected
+     * @return The result of the card
+     */
+    private BatchResult rejected(int index, Rejection rejection) {
+        ResponseError error = errorHandler.handleRejection(rejection);
+        return new BatchResult(index, error.getStatusCode(), null, error);
+    }
+
+    /**
+     * The cards that were asked for, which are checked and looked up before anything is written to the response
+     *
+     * @param cards The CreditCards after the cursor, in the requested order
+     * @param limit The number of cards on the page, or -1 for all of them
+     */
+    public record CardQuery(Iterator<CreditCard> cards, int limit) {
+    }
+
+    /**
+     * Checks the optional limit, after and order query parameters and finds the first card to be listed. All of this is
+     * done before the response is started, so an invalid query can still be answered with an error.
+     *
+     * @param request The request with the optional limit, after and order query parameters
+     * @return The cards to be written by writeCards
+     * @throws InvalidQueryException If the limit, the cursor or the order is invalid
+     */
+    public CardQuery queryCards(Request request) throws InvalidQueryException {
+        String limitParam = request.queryParams("limit");
+        String afterParam = request.queryParams("after");
+        String orderParam = request.queryParams("order");
+
+        int limit = -1;
+        if (limitParam != null) {
+            try {
+                limit = Integer.parseInt(limitParam);
+            } catch (NumberFormatException ex) {
+                limit = 0;
+            }
+            if (limit <= 0) {
+                throw new InvalidQueryException("The limit has to be a positive number, not " + limitParam + ".");
             }
         }
+
+        CardOrder order = CardOrder.ID;
+        if (orderParam != null) {
+            try {
+                order = CardOrder.valueOf(orderParam.toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                throw new InvalidQueryException("The order has to be one of " + Arrays.toString(CardOrder.values())
+                        + ", not " + orderParam + ".");
+            }
+        }
+
+        try {
+            UUID after = afterParam == null ? null : UUID.fromString(afterParam);
+            return new CardQuery(database.iterateCards(after, order), limit);
+        } catch (IllegalArgumentException ex) {
+            // Either the cursor is not an id, or there is no card with the id to continue after
+            throw new InvalidQueryException("The cursor " + afterParam + " is invalid. " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Streams the CreditCards to the output, sorted by their id or in the order they were accepted. Without a limit all
+     * the cards are written as a single array. With a limit, a page of cards is written along with the cursor to fetch
+     * the next page with, which is null on the last page. The cards are written one at a time, so the memory used does
+     * not grow with the number of cards.
+     *
+     * @param query The cards that were asked for, from queryCards
+     * @param out   The stream that the json is written to
+     * @throws IOException If the cards could not be written, possibly after part of them were
+     */
+    public void writeCards(CardQuery query, OutputStream out) throws IOException {
+        Iterator<CreditCard> cards = query.cards();
+        ObjectWriter writer        = JsonCodec.writer(CreditCard.class);
+        try (JsonGenerator generator = JsonCodec.generator(out)) {
+            if (query.limit() < 0) {
+                generator.writeStartArray();
+                while (cards.hasNext()) {
+                    writer.writeValue(generator, cards.next());
+                }
+                generator.writeEndArray();
+                return;
+            }
+
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("cards");
+            CreditCard last = null;
+            for (int i = 0; i < Math.min(query.limit(), MAX_PAGE_SIZE) && cards.hasNext(); i++) {
+                last = cards.next();
+                writer.writeValue(generator, last);
+            }
+            generator.writeEndArray();
+            generator.writeStringField("next", last != null && cards.hasNext() ? last.getId().toString() : null);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * This function is responsible for ensuring that the credit card submitted is a valid card based on the
+     * provided criteria. A card that does not meet them is rejected without throwing anything, as that is expected.
+     *
+     * @param create The body of the create CreditCard
+     * @return The card details if the create body is valid, or the reason it was rejected
+     * @throws Exception Any errors that occur while looking up the card details that will be caught by the main class.
+     */
+    private ValidResponse validateCard(CardCreate create) throws Exception {
+
+        // Reject the numbers that can never be valid before anything is looked up for them
+        long digits         = CardValidator.parse(create.getCardNumber());
+        Rejection rejection = CardValidator.check(digits);
+        if (rejection != null) {
+            return new ValidResponse(rejection);
+        }
+        if (database.isCardDuplicate(CardValidator.toNumber(digits))) {
+            return new ValidResponse(Rejection.DUPLICATE);
+        }
+
+        // Only look up the card details if the BIN has not been seen recently
+        String bin               = CardValidator.binOf(digits);
+        CardResponse cardDetails = binCache.get(bin, () -> lookup(bin));
+        if (cardDetails == null) {
+            return new ValidResponse(Rejection.UNKNOWN_BIN);
+        }
+
+        if (database.isBanned(cardDetails.getCountry() == null ? null : cardDetails.getCountry().getName())) {
+            return new ValidResponse(Rejection.BANNED);
+        }
+        return new ValidResponse(cardDetails);
     }
 
     // =================================================================================================================
@@ -141,13 +378,16 @@ public class CreditCardModule {
      * @param request The request that contains the body for the banned countries
      * @return The list of countries to be banned
      * @throws BannedCountryException Any errors that occur that will be caught by the main class
+     * @throws SaveCardsException     If the ban could not be saved
      */
-    public CountryList banCountry(Request request) throws BannedCountryException {
+    public CountryList banCountry(Request request) throws BannedCountryException, SaveCardsException {
         try {
-            CountryList countryList = new ObjectMapper().readValue(request.body(), CountryList.class);
+            CountryList countryList = JsonCodec.read(request.body(), CountryList.class);
             List<String> countries  = database.banCountries(countryList.getCountries());
             countryList.setCountries(countries);
             return countryList;
+        } catch (SaveCardsException ex) {
+            throw ex;
         } catch (IOException ex) {
             throw new BannedCountryException(ex.getMessage());
         } catch (Exception ex) {
@@ -161,12 +401,15 @@ public class CreditCardModule {
      * @param request The request that contains the body for the unbanned countries
      * @return The list of countries to be unbanned
      * @throws UnBannedCountryException Any errors that occur that will be caught by the main class
+     * @throws SaveCardsException       If the unban could not be saved
      */
-    public CountryList unbanCountry(Request request) throws UnBannedCountryException {
+    public CountryList unbanCountry(Request request) throws UnBannedCountryException, SaveCardsException {
         try {
-            CountryList countryList = new ObjectMapper().readValue(request.body(), CountryList.class);
+            CountryList countryList = JsonCodec.read(request.body(), CountryList.class);
             database.unbanCountries(countryList.getCountries());
             return countryList;
+        } catch (SaveCardsException ex) {
+            throw ex;
         } catch (IOException ex) {
             throw new UnBannedCountryException(ex.getMessage());
         } catch (Exception ex) {
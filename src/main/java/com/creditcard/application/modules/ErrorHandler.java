@@ -1,15 +1,47 @@
 package com.creditcard.application.modules;
 
+import com.creditcard.application.datahandler.JsonCodec;
 import com.creditcard.application.models.exceptions.*;
+import com.creditcard.application.models.responses.Rejection;
 import com.creditcard.application.models.responses.ResponseError;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import spark.Request;
+
+import java.util.EnumMap;
+import java.util.Map;
 
 /**
  * Responsible for handling any of the errors that occur during attempts of different application processes
  */
 public class ErrorHandler extends Errors {
 
+    // The errors of the rejections never change, so they are built and serialised once and shared by every response
+    private static final Map<Rejection, ResponseError> REJECTION_ERRORS = new EnumMap<>(Rejection.class);
+    private static final Map<Rejection, String> REJECTION_JSON          = new EnumMap<>(Rejection.class);
+
+    // Count the errors by the exception that caused them, and the rejected cards by the reason they were rejected
+    private static final Metrics.Family<Metrics.Counter> ERRORS   = Metrics.counters("errors_total",
+            "The errors that were handled, by the exception that caused them", "exception");
+    private static final Map<Rejection, Metrics.Counter> REJECTED = new EnumMap<>(Rejection.class);
+
+    static {
+        ErrorHandler handler                       = new ErrorHandler();
+        Metrics.Family<Metrics.Counter> rejections = Metrics.counters("rejections_total",
+                "The cards that were rejected, by the reason they were rejected", "reason");
+        for (Rejection rejection : Rejection.values()) {
+            ResponseError error = handler.errorOf(exceptionOf(rejection));
+            REJECTION_ERRORS.put(rejection, error);
+            REJECTED.put(rejection, rejections.with(rejection.name().toLowerCase()));
+            try {
+                REJECTION_JSON.put(rejection, JsonCodec.toJson(error));
+            } catch (ObjectMapperException ex) {
+                throw new IllegalStateException("The error of the rejection " + rejection + " could not be mapped.",
+                        ex);
+            }
+        }
+    }
+
     /**
      * Gets an error and pattern matches it to a specific type and then provides the appropriate error.
      *
@@ -18,18 +50,84 @@ public class ErrorHandler extends Errors {
      * @see ResponseError
      */
     public ResponseError handleException(Exception ex) {
+        ERRORS.with(ex.getClass().getSimpleName()).increment();
+        return errorOf(ex);
+    }
+
+    /**
+     * Maps the exception to its error, without counting it
+     *
+     * @param ex The exception that has to be handled
+     * @return The appropriate ResponseError for the provided exception.
+     */
+    private ResponseError errorOf(Exception ex) {
         return switch (ex) {
             case JsonParseException jpe            -> parseException(jpe);
             case UnrecognizedPropertyException upe -> unrecognisedProperty(upe);
             case BannedCountryException bc         -> bannedCountry(bc);
             case UnBannedCountryException ubc      -> unBannedCountry(ubc);
             case InvalidCardException ice          -> invalid(ice);
+            case InvalidQueryException iqe         -> invalidQuery(iqe);
+            case BatchTooLargeException btl        -> batchTooLarge(btl);
             case DuplicateCardException dce        -> duplicateCard(dce);
             case LoadCardsException lce            -> loadCards(lce);
             case LoadCountriesException lce        -> loadCountries(lce);
+            case SaveCardsException sce            -> saveCards(sce);
             case NullPointerException npe          -> notFound(npe);
             default                                -> unexpectedError(ex);
         };
     }
 
+    /**
+     * Provides the error of a rejected card, which is the same error as the exception of the rejection would give
+     *
+     * @param rejection The reason the card was rejected
+     * @return The shared ResponseError of the rejection
+     */
+    public ResponseError handleRejection(Rejection rejection) {
+        REJECTED.get(rejection).increment();
+        return REJECTION_ERRORS.get(rejection);
+    }
+
+    /**
+     * Handles an exception that happened after the status and part of the body were already sent. The error can no
+     * longer be sent as a response, and ending the response normally would leave the client with a body that looks
+     * complete but is cut short, so the connection is aborted instead and the client sees the response fail.
+     *
+     * @param request The request whose response failed
+     * @param ex      The exception that has to be handled
+     */
+    public void abortResponse(Request request, Exception ex) {
+        ERRORS.with(ex.getClass().getSimpleName()).increment();
+        System.out.println("[ERROR] - Aborting the response to " + request.pathInfo() + " part of the way through. "
+                + ex);
+        // Spark wraps the request of Jetty, which is the only one that can reach the connection
+        org.eclipse.jetty.server.Request.getBaseRequest(request.raw()).getHttpChannel().abort(ex);
+    }
+
+    /**
+     * Provides the error of a rejected card as json, which was serialised when the application started
+     *
+     * @param rejection The reason the card was rejected
+     * @return The ResponseError of the rejection in json form
+     */
+    public String rejectionJson(Rejection rejection) {
+        return REJECTION_JSON.get(rejection);
+    }
+
+    /**
+     * Creates the exception that used to be thrown for the rejection, which the error of the rejection is built from.
+     * This is only done once for every rejection.
+     *
+     * @param rejection The reason the card was rejected
+     * @return The exception of the rejection
+     */
+    private static Exception exceptionOf(Rejection rejection) {
+        return switch (rejection) {
+            case DUPLICATE -> new DuplicateCardException();
+            case BANNED    -> new BannedCountryException(rejection.getMessage());
+            default        -> new InvalidCardException(rejection.getMessage());
+        };
+    }
+
 }
@@ -6,7 +6,9 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
 
 /**
  * Contains all the basic error messages that can be caught by the ErrorHandler
@@ -44,6 +46,34 @@ public abstract class Errors {
         );
     }
 
+    /**
+     * Error Response for when the query parameters of the request are invalid
+     *
+     * @param ex The exception
+     * @return The response in an error form
+     */
+    public ResponseError invalidQuery(InvalidQueryException ex) {
+        return new ResponseError(
+                SC_BAD_REQUEST,
+                "The query parameters of the request are invalid.",
+                ex.getMessage()
+        );
+    }
+
+    /**
+     * Error Response for when a batch has more cards than can be imported at once
+     *
+     * @param ex The exception
+     * @return The response in an error form
+     */
+    public ResponseError batchTooLarge(BatchTooLargeException ex) {
+        return new ResponseError(
+                SC_REQUEST_ENTITY_TOO_LARGE,
+                "The batch has more cards than can be imported at once.",
+                ex.getMessage()
+        );
+    }
+
     /**
      * Error Response for when there is any duplicated card detected
      *
@@ -90,6 +120,20 @@ public abstract class Errors {
         );
     }
 
+    /**
+     * Error Response for when there is a problem when saving the credit cards to the text files
+     *
+     * @param ex The exception
+     * @return The response in an error form
+     */
+    public ResponseError saveCards(SaveCardsException ex) {
+        return new ResponseError(
+                SC_INTERNAL_SERVER_ERROR,
+                "There was an issue trying to save the card to the text file.",
+                ex.getMessage()
+        );
+    }
+
     /**
      * Error Response for when the country of the card being created is banned
      *
@@ -139,10 +183,20 @@ public abstract class Errors {
      * @return The response in an error form
      */
     public ResponseError notFound(Exception ex) {
+        return notFound(ex.getMessage());
+    }
+
+    /**
+     * The general response message when there is no resource found for the identifier
+     *
+     * @param resource The identifier of the resource that was not found
+     * @return The response in an error form
+     */
+    public ResponseError notFound(String resource) {
         return new ResponseError(
                 SC_NOT_FOUND,
                 "Unable to find a resource for the specific requirements.",
-                "No resource was found: " + ex.getMessage()
+                "No resource was found: " + resource
         );
     }
 
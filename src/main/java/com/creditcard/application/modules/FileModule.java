@@ -1,73 +1,518 @@
 package com.creditcard.application.modules;
 
+import com.creditcard.application.datahandler.CardCodec;
+import com.creditcard.application.datahandler.Durability;
+import com.creditcard.application.datahandler.JsonCodec;
+import com.creditcard.application.datahandler.WriteAheadLog;
+import com.creditcard.application.models.cards.BanDelta;
+import com.creditcard.application.models.cards.CardResponse;
 import com.creditcard.application.models.cards.CountryList;
 import com.creditcard.application.models.cards.CreditCard;
 import com.creditcard.application.models.exceptions.LoadCardsException;
 import com.creditcard.application.models.exceptions.LoadCountriesException;
 import com.creditcard.application.models.exceptions.ObjectMapperException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.creditcard.application.models.exceptions.SaveCardsException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Handles all the file related functionality
  */
 public class FileModule {
 
+    // The log segments and snapshots that the cards are saved in, followed by the older files they replace
+    public static final String SEGMENT_PREFIX    = "cards-";
+    public static final String SNAPSHOT_PREFIX   = "snapshot-";
+    public static final String CARDS_FILE        = "cards.dat";
+    public static final String LEGACY_CARDS_FILE = "cards.txt";
+
+    // The positions of the ban changes are shifted by this many bits for each file, so they sort in file order
+    private static final int FILE_POSITION_BITS = 40;
+
+    // The smallest and largest chunks of the cards file that are parsed by a single thread during the load
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    private static final long MAX_CHUNK_BYTES = 1 << 30;
+
+    private static final Metrics.Timer SNAPSHOT_SAVES = Metrics.timer("snapshot_save_seconds",
+            "The time taken to write a snapshot of the cards");
+
+    // The number of threads that parse the cards file in parallel
+    private final int loadThreads;
+
+    // The directory that the cards files and the banned countries are kept in
+    private final Path directory;
+
+    // The number of the log segment that the log appends to
+    private long activeSegment = 1;
+
+    // The time it took to load the cards the last time, which is exposed as a metric
+    private volatile long loadMillis = 0;
+
+    public FileModule() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FileModule(int loadThreads) {
+        this(loadThreads, Path.of("src/main/resources"));
+    }
+
     /**
-     * Converts the Object/Model to json, so it can be used in a response
+     * Creates the module for the files in the directory
      *
-     * @param data The Object/Model that will be mapped to json
-     * @return The Object/Model in json form
+     * @param loadThreads The number of threads that parse the cards files in parallel
+     * @param directory   The directory that the cards files and banned-countries.txt are kept in
+     */
+    public FileModule(int loadThreads, Path directory) {
+        this.loadThreads = Math.max(loadThreads, 1);
+        this.directory   = directory;
+    }
+
+    /**
+     * Loads the saved CreditCards from the latest snapshot and the log segments written after it. Every file is split
+     * into chunks of whole records, which are decoded in parallel straight from the mapped files. If there is only the
+     * old cards.txt or cards.dat, they are migrated first.
+     * @param banDeltas Receives the journaled changes to the banned countries, in the order they were made
+     * @return The CreditCards to be loaded into the CoolTempDatabase, in the order they were saved
      */
-    private String dataToJson(Object data) throws ObjectMapperException {
+    public Map<UUID, CreditCard> loadCards(Consumer<BanDelta> banDeltas) throws Exception {
+        Map<UUID, CreditCard> cards = new LinkedHashMap<>();
+        migrateCards();
+
+        long start = System.nanoTime();
+
+        // Start from the latest snapshot and replay the segments that were written after it
+        long snapshot       = latest(SNAPSHOT_PREFIX);
+        List<Path> files    = new ArrayList<>();
+        List<Long> segments = list(SEGMENT_PREFIX);
+        if (snapshot > 0) {
+            files.add(resource(SNAPSHOT_PREFIX, snapshot));
+        }
+        for (long segment : segments) {
+            if (segment >= snapshot) {
+                files.add(resource(SEGMENT_PREFIX, segment));
+            }
+        }
+        activeSegment = segments.isEmpty() ? Math.max(snapshot, 1) : segments.get(segments.size() - 1);
+
+        // The ban changes are keyed by the file and their position in it, so they can be replayed in order
+        NavigableMap<Long, BanDelta> deltas = new ConcurrentSkipListMap<>();
+
+        ForkJoinPool pool = new ForkJoinPool(loadThreads);
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.enable(SerializationFeature.INDENT_OUTPUT);
-            StringWriter sw = new StringWriter();
-            mapper.writeValue(sw, data);
-            return sw.toString();
+            for (int i = 0; i < files.size(); i++) {
+                boolean isActive = files.get(i).equals(resource(SEGMENT_PREFIX, activeSegment));
+                loadFile(pool, files.get(i), (long) i << FILE_POSITION_BITS, isActive, cards, deltas);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        deltas.values().forEach(banDeltas);
+
+        loadMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("[INFO] - Loaded %d cards and %d ban changes from %d files in %dms (%d cards/s on %d "
+                        + "threads)%n", cards.size(), deltas.size(), files.size(), loadMillis,
+                cards.size() * 1000L / Math.max(loadMillis, 1), loadThreads);
+        return cards;
+    }
+
+    /**
+     * Decodes all the records of a single cards file in parallel
+     *
+     * @param pool     The pool that decodes the chunks of the file
+     * @param path     The cards file
+     * @param order    Added to the positions of the ban changes, so the changes of later files sort after them
+     * @param isActive If this is the segment that the log appends to, which is the only file that may be torn
+     * @param cards    The cards that have been loaded, in the order they were saved
+     * @param deltas   The ban changes that have been loaded
+     * @throws LoadCardsException If the file could not be read or is corrupted
+     */
+    private void loadFile(ForkJoinPool pool, Path path, long order, boolean isActive, Map<UUID, CreditCard> cards,
+                          Map<Long, BanDelta> deltas) throws LoadCardsException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            List<Callable<ChunkRecords>> tasks = new ArrayList<>();
+            List<long[]> chunks                = findRecordChunks(channel);
+            for (long[] chunk : chunks) {
+                tasks.add(() -> loadRecords(channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]),
+                        path.getFileName().toString(), chunk[0], order, deltas));
+            }
+
+            List<ChunkRecords> results    = new ArrayList<>();
+            Map<Long, CardResponse> details = new HashMap<>();
+            for (Future<ChunkRecords> result : pool.invokeAll(tasks)) {
+                results.add(result.get());
+                details.putAll(result.get().details());
+            }
+
+            // Every chunk keeps its cards in order, so joining the chunks in order keeps the order of the whole file. A
+            // card can be in both a snapshot and the segment after it, in which case it keeps its first position. The
+            // details a card refers to can be in any chunk of the file, so they are only filled in once all are read.
+            for (ChunkRecords result : results) {
+                for (CardCodec.CardReference reference : result.cards()) {
+                    CreditCard card = reference.card();
+                    if (reference.detailsKey() != CardCodec.NO_DETAILS) {
+                        card.setDetails(details.get(reference.detailsKey()));
+                        if (card.getDetails() == null) {
+                            throw new LoadCardsException("The card " + card.getId() + " in " + path.getFileName()
+                                    + " refers to card details that are not in the file.");
+                        }
+                    }
+                    cards.putIfAbsent(card.getId(), card);
+                }
+            }
+
+            // Anything after the last whole record is only a torn write if it really is the end of the file. If a
+            // whole record follows it, the damage is in the middle of the file, and removing it would lose records.
+            long end = chunks.isEmpty() ? 0 : chunks.get(chunks.size() - 1)[1];
+            if (end < channel.size()) {
+                long next = findNextRecord(channel, end + 1);
+                if (next >= 0) {
+                    throw new LoadCardsException("The record at byte " + end + " of " + path.getFileName()
+                            + " is corrupted, but it is followed by a whole record at byte " + next + ".");
+                }
+                if (!isActive) {
+                    throw new LoadCardsException(path.getFileName() + " was cut short at byte " + end + ".");
+                }
+                System.out.println("[WARN] - Removing " + (channel.size() - end) + " bytes of a torn write from "
+                        + path.getFileName());
+                channel.truncate(end);
+            }
+        } catch (ExecutionException ex) {
+            throw failureOf(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LoadCardsException("Interrupted while loading " + path.getFileName() + ".");
         } catch (IOException ex) {
-            ex.printStackTrace();
-            throw new ObjectMapperException(ex.getMessage());
+            throw new LoadCardsException(ex.getMessage());
         }
     }
 
     /**
-     * Loads the saved CreditCards inside cards.txt
-     * @return The list of CreditCards to be loaded into the CoolTempDatabase
+     * Hops over the length of every record in the cards file to split it into chunks of whole records. The hops stop
+     * at the first record whose length is invalid or does not fit in the file, and the last record is checked against
+     * its checksum, so a damaged record at the end of the hops is left out of the chunks.
+     *
+     * @param channel The channel of the cards file
+     * @return The start (inclusive) and end (exclusive) positions of each chunk
+     * @throws IOException If the file could not be read or is not a cards file
      */
-    public Map<UUID, CreditCard> loadCards(ArrayList<String> bannedCountries) throws Exception {
-        Map<UUID, CreditCard> cards = new HashMap<>();
-        List<String> cardsData      = Arrays.asList(load("cards.txt").split("~"));
+    private List<long[]> findRecordChunks(FileChannel channel) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long size           = channel.size();
+        if (size < CardCodec.HEADER_BYTES) {
+            // Even the header was not written completely
+            return chunks;
+        }
 
-        boolean isModified = false;
+        ByteBuffer header = ByteBuffer.allocate(CardCodec.HEADER_BYTES);
+        channel.read(header, 0);
+        CardCodec.checkHeader(header.flip());
 
-        // Remove the empty last line and then load in all the CreditCards from the text file
-        for (String data : cardsData.subList(0, cardsData.size() - 1)) {
-            try {
-                CreditCard card = new ObjectMapper().readValue(data, CreditCard.class);
+        long chunkSize  = Math.min(Math.max(size / (loadThreads * 4L), MIN_CHUNK_BYTES), MAX_CHUNK_BYTES);
+        long chunkStart = CardCodec.HEADER_BYTES;
+        long position   = CardCodec.HEADER_BYTES;
+        long lastRecord = -1;
 
-                // If the country is banned and the card is not banned, ban it and then say that it was modified
-                boolean isCountryBanned = bannedCountries.contains(card.getDetails().getCountry().getName());
+        boolean isDamaged = false;
 
-                // Ban or unban the card if the country is banned
-                if (!(card.getIsBanned() && isCountryBanned)) {
-                    card.setIsBanned(true);
-                    isModified = true;
+        while (position < size && !isDamaged) {
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(size - position, MAX_CHUNK_BYTES));
+            int offset = 0;
+            while (window.limit() - offset >= CardCodec.FRAME_BYTES) {
+                int length = window.getInt(offset);
+                if (length <= 0 || length > CardCodec.MAX_PAYLOAD_BYTES) {
+                    // The length itself was cut short, never written or damaged
+                    isDamaged = true;
+                    break;
                 }
-                cards.put(card.getId(), card);
-            } catch (IOException ex) {
-                throw new LoadCardsException(ex.getMessage());
+                if (offset + CardCodec.FRAME_BYTES + length > window.limit()) {
+                    break;
+                }
+                lastRecord = position + offset;
+                offset    += CardCodec.FRAME_BYTES + length;
+                if (position + offset - chunkStart >= chunkSize) {
+                    chunks.add(new long[]{chunkStart, position + offset});
+                    chunkStart = position + offset;
+                }
+            }
+            if (offset == 0) {
+                // The record does not fit in the rest of the file, so it was cut short or its length is damaged
+                isDamaged = true;
             }
+            position += offset;
         }
-        // Only save the cards if there was a change
-        if (isModified) {
-            saveCards(cards.values());
+        if (chunkStart < position) {
+            chunks.add(new long[]{chunkStart, position});
         }
-        return cards;
+        if (chunks.isEmpty()) {
+            chunks.add(new long[]{CardCodec.HEADER_BYTES, CardCodec.HEADER_BYTES});
+        }
+
+        // Leave the last record out if it does not match its checksum
+        if (lastRecord >= 0 && !isRecordValid(channel, lastRecord)) {
+            long[] last = chunks.get(chunks.size() - 1);
+            last[1]     = lastRecord;
+        }
+        return chunks;
+    }
+
+    /**
+     * Unwraps the failure of a chunk that was loaded by the pool, which wraps the IOException of the chunk in a
+     * RuntimeException that only adds its class to the message
+     *
+     * @param ex The failure of the chunk
+     * @return The failure of the load
+     */
+    private static LoadCardsException failureOf(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        while (!(cause instanceof IOException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return new LoadCardsException(cause.getMessage());
+    }
+
+    /**
+     * Looks for a whole record anywhere after the position, one byte at a time, as the records after a damaged one
+     * cannot be found by hopping over the lengths. A torn write is the last thing in the file, so nothing is found.
+     *
+     * @param channel The channel of the cards file
+     * @param from    The first position to look at
+     * @return The position of the first whole record, or -1 if there is none
+     * @throws IOException If the file could not be read
+     */
+    private long findNextRecord(FileChannel channel, long from) throws IOException {
+        long size = channel.size();
+        long base = from;
+        while (base + CardCodec.FRAME_BYTES <= size) {
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base,
+                    MAX_CHUNK_BYTES));
+            int last          = window.limit() - CardCodec.FRAME_BYTES;
+            for (int offset = 0; offset <= last; offset++) {
+                int length = window.getInt(offset);
+                if (length > 0 && length <= CardCodec.MAX_PAYLOAD_BYTES
+                        && base + offset + CardCodec.FRAME_BYTES + length <= size
+                        && isRecordValid(channel, base + offset)) {
+                    return base + offset;
+                }
+            }
+            base += last + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the record at the position matches its checksum
+     *
+     * @param channel  The channel of the cards file
+     * @param position The position of the record
+     * @return If the record is whole
+     * @throws IOException If the file could not be read
+     */
+    private boolean isRecordValid(FileChannel channel, long position) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(CardCodec.FRAME_BYTES);
+        channel.read(frame, position);
+        frame.flip();
+        int length       = frame.getInt();
+        int checksum     = frame.getInt();
+        ByteBuffer data  = channel.map(FileChannel.MapMode.READ_ONLY, position + CardCodec.FRAME_BYTES, length);
+        return CardCodec.checksum(data, length) == checksum;
+    }
+
+    /**
+     * The records that were decoded from a single chunk of a cards file
+     *
+     * @param cards   The cards in the chunk, in the order they were saved
+     * @param details The card details in the chunk, keyed by the key the cards refer to them by
+     */
+    private record ChunkRecords(List<CardCodec.CardReference> cards, Map<Long, CardResponse> details) {
+    }
+
+    /**
+     * Decodes all the records in the chunk and adds the ban changes to the ones that have been loaded
+     *
+     * @param chunk    The mapped chunk of whole records
+     * @param fileName The name of the file, used when reporting a corrupted record
+     * @param offset   The position of the chunk in the file
+     * @param order    Added to the positions of the ban changes, so the changes of later files sort after them
+     * @param deltas   The ban changes that have been loaded, keyed by their position
+     * @return The cards and card details in the chunk
+     * @throws IOException If any of the records are corrupted
+     */
+    private ChunkRecords loadRecords(ByteBuffer chunk, String fileName, long offset, long order,
+                                     Map<Long, BanDelta> deltas) throws IOException {
+        List<CardCodec.CardReference> cards = new ArrayList<>();
+        Map<Long, CardResponse> details     = new HashMap<>();
+        while (chunk.hasRemaining()) {
+            int start    = chunk.position();
+            int length   = chunk.getInt();
+            int checksum = chunk.getInt();
+            if (CardCodec.checksum(chunk, length) != checksum) {
+                throw new IOException("The record at byte " + (offset + start) + " of " + fileName
+                        + " is corrupted.");
+            }
+            ByteBuffer payload = chunk.slice(chunk.position(), length);
+            chunk.position(chunk.position() + length);
+
+            byte type = payload.get();
+            switch (type) {
+                case CardCodec.TYPE_CARD, CardCodec.TYPE_CARD_REF -> cards.add(CardCodec.decodeCard(type, payload));
+                case CardCodec.TYPE_DETAILS -> details.put(CardCodec.decodeDetailsKey(payload),
+                        CardCodec.decodeDetails(payload));
+                case CardCodec.TYPE_BAN, CardCodec.TYPE_UNBAN ->
+                        deltas.put(order + offset + start, CardCodec.decodeBanDelta(type, payload));
+                default -> throw new IOException("Unknown record type " + type + " at byte " + (offset + start)
+                        + " of " + fileName + ".");
+            }
+        }
+        return new ChunkRecords(cards, details);
+    }
+
+    /**
+     * A one time migration of the older cards files to the log segments. The binary cards.dat becomes the first
+     * segment as is, while the old cards.txt, which had json records separated by ~, is converted to it.
+     *
+     * @throws Exception If the old cards could not be read or the new file could not be written
+     */
+    private void migrateCards() throws Exception {
+        if (!list(SEGMENT_PREFIX).isEmpty() || latest(SNAPSHOT_PREFIX) > 0) {
+            return;
+        }
+        Path first = resource(SEGMENT_PREFIX, 1);
+        if (Files.exists(resource(CARDS_FILE))) {
+            Files.move(resource(CARDS_FILE), first);
+            System.out.println("[INFO] - Migrated " + CARDS_FILE + " to " + first.getFileName());
+            return;
+        }
+
+        Path legacyPath = resource(LEGACY_CARDS_FILE);
+        if (!Files.exists(legacyPath)) {
+            return;
+        }
+        // Every chunk keeps its cards in order, so joining the chunks in order keeps the order of the whole file
+        Map<UUID, CreditCard> cards = new LinkedHashMap<>();
+        ForkJoinPool pool           = new ForkJoinPool(loadThreads);
+        try (FileChannel channel = FileChannel.open(legacyPath, StandardOpenOption.READ)) {
+            ObjectReader reader                    = JsonCodec.reader(CreditCard.class);
+            List<Callable<List<CreditCard>>> tasks = new ArrayList<>();
+            for (long[] chunk : findJsonChunks(channel)) {
+                tasks.add(() -> loadJsonChunk(channel.map(FileChannel.MapMode.READ_ONLY, chunk[0],
+                        chunk[1] - chunk[0]), reader));
+            }
+            for (Future<List<CreditCard>> result : pool.invokeAll(tasks)) {
+                for (CreditCard card : result.get()) {
+                    cards.put(card.getId(), card);
+                }
+            }
+        } catch (ExecutionException ex) {
+            throw failureOf(ex);
+        } catch (IOException ex) {
+            throw new LoadCardsException(ex.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+
+        writeRecords(first, cards.values(), List.of());
+        System.out.println("[INFO] - Migrated " + cards.size() + " cards from " + LEGACY_CARDS_FILE + " to "
+                + first.getFileName());
+    }
+
+    /**
+     * Reads through the old cards file once to find where the chunks of whole records start and end. Only the ~
+     * outside the json strings are treated as the end of a record.
+     *
+     * @param channel The channel of the old cards file
+     * @return The start (inclusive) and end (exclusive) positions of each chunk
+     * @throws IOException If the file could not be read
+     */
+    private List<long[]> findJsonChunks(FileChannel channel) throws IOException {
+        long size      = channel.size();
+        long chunkSize = Math.min(Math.max(size / (loadThreads * 4L), MIN_CHUNK_BYTES), MAX_CHUNK_BYTES);
+
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer buffer   = ByteBuffer.allocateDirect(1 << 20);
+        boolean isInString  = false;
+        boolean isEscaped   = false;
+        long chunkStart     = 0;
+        long position       = 0;
+
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                position++;
+                if (isEscaped) {
+                    isEscaped = false;
+                } else if (isInString) {
+                    if (b == '\\') {
+                        isEscaped = true;
+                    } else if (b == '"') {
+                        isInString = false;
+                    }
+                } else if (b == '"') {
+                    isInString = true;
+                } else if (b == '~' && position - chunkStart >= chunkSize) {
+                    chunks.add(new long[]{chunkStart, position});
+                    chunkStart = position;
+                }
+            }
+            buffer.clear();
+        }
+        if (chunkStart < size) {
+            chunks.add(new long[]{chunkStart, size});
+        }
+        return chunks;
+    }
+
+    /**
+     * Parses all the json records in the chunk
+     *
+     * @param chunk  The mapped chunk of whole records
+     * @param reader The reader used to parse the CreditCards
+     * @return The cards in the chunk, in the order they are in the file
+     * @throws IOException If the records could not be parsed
+     */
+    private List<CreditCard> loadJsonChunk(ByteBuffer chunk, ObjectReader reader) throws IOException {
+        try (
+                InputStream in = new RecordSeparatorInputStream(new ByteBufferBackedInputStream(chunk));
+                MappingIterator<CreditCard> records = reader.readValues(in)
+        ) {
+            List<CreditCard> cards = new ArrayList<>();
+            while (records.hasNextValue()) {
+                cards.add(records.nextValue());
+            }
+            return cards;
+        } catch (RuntimeException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * The time it took to read the cards the last time they were loaded
+     *
+     * @return The time in milliseconds
+     */
+    public long getLoadMillis() {
+        return loadMillis;
     }
 
     /**
@@ -85,8 +530,8 @@ public class FileModule {
         if (!data.isEmpty() & !data.get(0).isEmpty()) {
             data.removeIf(String::isEmpty);
             try {
-                String create           = String.format("{\"countries\":%s}", dataToJson(data));
-                CountryList countryList = new ObjectMapper().readValue(create, CountryList.class);
+                String create           = String.format("{\"countries\":%s}", JsonCodec.toJson(data));
+                CountryList countryList = JsonCodec.read(create, CountryList.class);
                 countries.addAll(countryList.getCountries());
             } catch (IOException ex) {
                 throw new LoadCountriesException(ex.getMessage());
@@ -98,48 +543,159 @@ public class FileModule {
     }
 
     /**
-     * Saves the data to the cards.txt file in the resources folder
-     * @param data The data to be appended to the file
+     * Writes a snapshot of the cards and the ban changes. Once it is written, it replaces the log segments before the
+     * provided segment, so those and any older snapshots are deleted.
+     *
+     * @param segment   The first segment that is not covered by the snapshot
+     * @param cards     The cards that were saved before the segment
+     * @param banDeltas The ban changes that give the banned countries at the start of the segment
+     * @return The size of the snapshot in bytes
+     * @throws SaveCardsException If the snapshot could not be written
      */
-    public void save(String data, String fileName, boolean append) {
-        try (FileWriter fw = new FileWriter("src/main/resources/" + fileName, append);
-             PrintWriter out = new PrintWriter(new BufferedWriter(fw))) {
-            out.println(data);
-        } catch (Exception e) {
-            System.out.println("[Error] - Could not save to file " + fileName);
+    public long saveSnapshot(long segment, Iterable<CreditCard> cards, List<BanDelta> banDeltas)
+            throws SaveCardsException {
+        long start = System.nanoTime();
+        Path path  = resource(SNAPSHOT_PREFIX, segment);
+        writeRecords(path, cards, banDeltas);
+        try {
+            for (long older : list(SEGMENT_PREFIX)) {
+                if (older < segment) {
+                    Files.deleteIfExists(resource(SEGMENT_PREFIX, older));
+                }
+            }
+            for (long older : list(SNAPSHOT_PREFIX)) {
+                if (older < segment) {
+                    Files.deleteIfExists(resource(SNAPSHOT_PREFIX, older));
+                }
+            }
+            return Files.size(path);
+        } catch (IOException ex) {
+            throw new SaveCardsException(ex.getMessage());
+        } finally {
+            SNAPSHOT_SAVES.recordSince(start);
         }
     }
 
     /**
-     * Saves the provided cards to the text file.
-     * @param cards Cards to be written to the text file
-     * @throws ObjectMapperException If there is an Object mapper related exception
+     * Writes the cards and ban changes to a file. They are written to a temporary file first, which is then moved over
+     * the old file, so a crash can never leave a half written file behind. The details of the cards are written once,
+     * in front of the first card that refers to them.
+     *
+     * @param path      The file to be written
+     * @param cards     The cards to be written
+     * @param banDeltas The ban changes to be written after the cards
+     * @throws SaveCardsException If the file could not be written
      */
-    public void saveCards(Collection<CreditCard> cards) throws ObjectMapperException {
-        if (!cards.isEmpty()) {
-
-            // Convert the cards to Strings so they can be saved
-            ArrayList<String> json = new ArrayList<>();
+    private void writeRecords(Path path, Iterable<CreditCard> cards, List<BanDelta> banDeltas)
+            throws SaveCardsException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (
+                    FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                    OutputStream out    = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16)
+            ) {
+                out.write(CardCodec.header());
 
-            for (CreditCard card: cards) {
-                json.add(dataToJson(card));
+                // The cards mostly share their details, so the keys are remembered by the identity of the details
+                Map<CardResponse, Long> keys = new IdentityHashMap<>();
+                Set<Long> written            = new HashSet<>();
+                for (CreditCard card : cards) {
+                    long key = card.getDetails() == null ? CardCodec.NO_DETAILS
+                            : keys.computeIfAbsent(card.getDetails(), CardCodec::detailsKey);
+                    if (key != CardCodec.NO_DETAILS && written.add(key)) {
+                        out.write(CardCodec.encodeDetails(key, card.getDetails()));
+                    }
+                    out.write(CardCodec.encode(card, key));
+                }
+                for (BanDelta delta : banDeltas) {
+                    out.write(CardCodec.encode(delta));
+                }
+                out.flush();
+                channel.force(true);
             }
-            
-            // Save any changes to the cards
-            save(String.join("~", json) + "~", "cards.txt", false);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new SaveCardsException(ex.getMessage());
         }
     }
 
     /**
-     * A helper method to save the countries. Allows to be appended or not when a country is (un)banned
+     * Opens a write-ahead log that appends to the latest log segment of the cards. New segments are started with the
+     * header of the cards file format.
+     *
+     * @param durability         When the writes are forced to the disk
+     * @param syncIntervalMillis The time between syncs when the Durability is INTERVAL
+     * @return The opened log
+     * @throws IOException If the file could not be opened
+     */
+    public WriteAheadLog openLog(Durability durability, long syncIntervalMillis) throws IOException {
+        return new WriteAheadLog(resource(SEGMENT_PREFIX, activeSegment), CardCodec.header(), durability,
+                syncIntervalMillis);
+    }
+
+    /**
+     * Moves on to the next log segment, which the log has to be rolled over to
      *
-     * @param countryList The list of countries being (un)banned
-     * @param append      If the content must be appended or not
+     * @return The number of the next segment
      */
-    public void saveCountries(List<String> countryList, boolean append) {
-        if (!countryList.isEmpty() | !append) {
-            save(String.join(",", countryList).replace("\n", ""), "banned-countries.txt", append);
+    public synchronized long nextSegment() {
+        return ++activeSegment;
+    }
+
+    /**
+     * Resolves the numbered cards file inside the resource folder
+     *
+     * @param prefix The prefix of the file, either a segment or a snapshot
+     * @param number The number of the file
+     * @return The path of the file
+     */
+    public Path resource(String prefix, long number) {
+        return resource(String.format("%s%06d.dat", prefix, number));
+    }
+
+    /**
+     * Lists the numbers of the cards files with the prefix
+     *
+     * @param prefix The prefix of the files, either a segment or a snapshot
+     * @return The numbers of the files in ascending order
+     * @throws IOException If the resource folder could not be listed
+     */
+    private List<Long> list(String prefix) throws IOException {
+        Pattern pattern = Pattern.compile(Pattern.quote(prefix) + "(\\d+)\\.dat");
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(resource("."))) {
+            for (Path file : files) {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    numbers.add(Long.parseLong(matcher.group(1)));
+                }
+            }
         }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Finds the highest number of the cards files with the prefix
+     *
+     * @param prefix The prefix of the files, either a segment or a snapshot
+     * @return The highest number, or 0 if there are none
+     * @throws IOException If the resource folder could not be listed
+     */
+    private long latest(String prefix) throws IOException {
+        List<Long> numbers = list(prefix);
+        return numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1);
+    }
+
+    /**
+     * Resolves the file inside the resource folder
+     *
+     * @param fileName The name of the file
+     * @return The path of the file
+     */
+    private Path resource(String fileName) {
+        return directory.resolve(fileName);
     }
 
     /**
@@ -150,13 +706,13 @@ public class FileModule {
      */
     public String load(String filename) {
         try (
-                FileReader fr = new FileReader("src/main/resources/" + filename);
+                FileReader fr = new FileReader(resource(filename).toFile());
                 BufferedReader br = new BufferedReader(fr)
         ) {
             StringBuilder sb = new StringBuilder();
             String line;
             while ((line = br.readLine()) != null) {
-                sb.append(String.format("%s%s", line,"\n"));
+                sb.append(line).append('\n');
             }
             return sb.toString();
         } catch (Exception ex) {
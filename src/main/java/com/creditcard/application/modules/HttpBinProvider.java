@@ -0,0 +1,131 @@
+package com.creditcard.application.modules;
+
+import com.creditcard.application.datahandler.JsonCodec;
+import com.creditcard.application.models.cards.CardResponse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Looks up the card details of a BIN with a binlist compatible API, which responds to a GET of the base URL followed
+ * by the BIN. The base URL can point at a local stub server when testing.
+ * <p>
+ * A single HttpClient is shared by all the lookups, so the connections are kept alive and reused, over HTTP/2 when the
+ * API supports it. Every lookup has a strict timeout, concurrent lookups of the same BIN share a single request, and a
+ * CircuitBreaker makes the lookups fail fast while the API is down.
+ */
+public class HttpBinProvider implements BinProvider {
+
+    public static final String DEFAULT_URL = "https://lookup.binlist.net/";
+
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    private final CircuitBreaker breaker;
+    private final HttpClient client;
+
+    // The lookups that are waiting for a response, so a concurrent lookup of the same BIN can wait for it as well
+    private final Map<String, CompletableFuture<CardResponse>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the client that the lookups are made with
+     *
+     * @param baseUrl        The URL that the BIN is added to
+     * @param connectTimeout How long to wait for a connection to the API
+     * @param requestTimeout How long to wait for the response of a lookup, including the connection
+     * @param breaker        The breaker that stops the lookups while the API is down
+     */
+    public HttpBinProvider(String baseUrl, Duration connectTimeout, Duration requestTimeout, CircuitBreaker breaker) {
+        this.baseUrl        = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.requestTimeout = requestTimeout;
+        this.breaker        = breaker;
+        this.client         = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @Override
+    public CardResponse lookup(String bin) throws Exception {
+        try {
+            return lookupAsync(bin).get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause()
+                    : ex.getCause();
+            throw cause instanceof Exception exception ? exception : ex;
+        }
+    }
+
+    /**
+     * Looks up the card details of the BIN without blocking. If the BIN is already being looked up, the lookup that is
+     * in flight is shared instead of making another request.
+     *
+     * @param bin The first digits of the card number
+     * @return A future of the card details, which are null if the BIN is unknown
+     */
+    public CompletableFuture<CardResponse> lookupAsync(String bin) {
+        CompletableFuture<CardResponse> created = new CompletableFuture<>();
+        CompletableFuture<CardResponse> shared  = inFlight.putIfAbsent(bin, created);
+        if (shared != null) {
+            return shared;
+        }
+
+        // Remove the lookup once it is done, so the next lookup of the BIN asks the API again
+        created.whenComplete((details, ex) -> inFlight.remove(bin, created));
+        if (!breaker.allowCall()) {
+            created.completeExceptionally(new IOException("The card lookup is unavailable, try again later."));
+            return created;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + bin))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(this::toDetails)
+                .whenComplete((details, ex) -> {
+                    if (ex == null) {
+                        breaker.recordSuccess();
+                        created.complete(details);
+                    } else {
+                        breaker.recordFailure();
+                        created.completeExceptionally(ex instanceof CompletionException
+                                && ex.getCause() != null ? ex.getCause() : ex);
+                    }
+                });
+        return created;
+    }
+
+    /**
+     * Maps the response of the API to the card details
+     *
+     * @param response The response of the API
+     * @return The card details, or null if the BIN is unknown
+     * @throws UncheckedIOException If the API did not respond with the card details
+     */
+    private CardResponse toDetails(HttpResponse<byte[]> response) {
+        try {
+            return switch (response.statusCode()) {
+                case 200, 201 -> JsonCodec.read(response.body(), CardResponse.class);
+                // The BIN is unknown, which is returned as null
+                case 404 -> null;
+                // Anything else, like being rate limited, says nothing about the card and must not be cached
+                default -> throw new IOException("The card lookup responded with status " + response.statusCode()
+                        + ".");
+            };
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.creditcard.application.modules;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the durations that are recorded in buckets that grow with the duration, so every duration is kept to within
+ * about 6% no matter how small or large it is. Recording a duration only increments two counters and never allocates,
+ * so it is cheap enough to be done on every request.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} buckets of the same width. Durations below that are counted
+ * exactly, and durations of more than about 5 hours are counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+    // The number of buckets that every power of two is split into, which sets the precision
+    private static final int SUB_BITS    = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    // The largest duration that is counted in its own bucket, in nanoseconds
+    private static final long MAX_NANOS = (1L << 44) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_NANOS) + 1);
+    private final LongAdder sumNanos     = new LongAdder();
+
+    /**
+     * Records a duration
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(indexOf(Math.min(Math.max(nanos, 0), MAX_NANOS)));
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time since the start
+     *
+     * @param startNanos The time that was read with System.nanoTime() at the start
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Takes a copy of the counts, so the count and the quantiles that are read from it agree with each other
+     *
+     * @return The counts of the buckets
+     */
+    public long[] snapshot() {
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * The total of all the durations that were recorded
+     *
+     * @return The total in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Finds the duration that the fraction of the counted durations are at or below
+     *
+     * @param snapshot The counts of the buckets
+     * @param quantile The fraction, between 0 and 1
+     * @return The upper end of the bucket of the quantile in nanoseconds, or 0 if nothing was counted
+     */
+    public static long quantile(long[] snapshot, double quantile) {
+        long total = count(snapshot);
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperOf(i);
+            }
+        }
+        return MAX_NANOS;
+    }
+
+    /**
+     * The number of durations in the counts
+     *
+     * @param snapshot The counts of the buckets
+     * @return The number of durations
+     */
+    public static long count(long[] snapshot) {
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Finds the bucket of a duration
+     *
+     * @param nanos The duration, which is between 0 and {@link #MAX_NANOS}
+     * @return The index of the bucket
+     */
+    private static int indexOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((nanos >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Finds the largest duration that is counted in the bucket
+     *
+     * @param index The index of the bucket
+     * @return The duration in nanoseconds
+     */
+    private static long upperOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> SUB_BITS) - 1;
+        long sub  = (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
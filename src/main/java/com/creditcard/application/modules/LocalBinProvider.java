@@ -0,0 +1,163 @@
+package com.creditcard.application.modules;
+
+import com.creditcard.application.datahandler.BinCache;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.exceptions.LoadCardsException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up the card details of a BIN in a table of BIN ranges that is loaded from a local file, so no network is needed
+ * to validate a card.
+ * <p>
+ * Every line of the file is a range, in the form
+ * {@code low,high,scheme,type,brand,prepaid,alpha2,country,currency,bank}. The low and high ends are BIN prefixes of any
+ * length up to the length of a BIN, so {@code 4000,4099} covers every BIN starting with 4000 to 4099. Empty fields are
+ * left empty in the card details, and lines starting with # are comments.
+ * <p>
+ * The ranges are kept as sorted arrays of their ends, so a lookup is a binary search without any allocation.
+ */
+public class LocalBinProvider implements BinProvider {
+
+    private static final int FIELDS = 10;
+
+    // The ranges sorted by their low end, which do not overlap. The details at an index belong to the range at it.
+    private final long[] lows;
+    private final long[] highs;
+    private final CardResponse[] details;
+
+    private LocalBinProvider(long[] lows, long[] highs, CardResponse[] details) {
+        this.lows    = lows;
+        this.highs   = highs;
+        this.details = details;
+    }
+
+    /**
+     * Loads the BIN ranges from the file
+     *
+     * @param path The file of BIN ranges
+     * @return The provider that looks up the loaded ranges
+     * @throws LoadCardsException If the file could not be read, has an invalid line or has ranges that overlap
+     */
+    public static LocalBinProvider load(Path path) throws LoadCardsException {
+        List<long[]> ranges        = new ArrayList<>();
+        List<CardResponse> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                if (fields.length != FIELDS) {
+                    throw new LoadCardsException("Line " + lineNumber + " of " + path.getFileName() + " has "
+                            + fields.length + " fields instead of " + FIELDS + ".");
+                }
+                try {
+                    ranges.add(new long[]{pad(fields[0].trim(), '0'), pad(fields[1].trim(), '9'), entries.size()});
+                } catch (NumberFormatException ex) {
+                    throw new LoadCardsException("Line " + lineNumber + " of " + path.getFileName()
+                            + " has an invalid BIN range.");
+                }
+                entries.add(toDetails(fields));
+            }
+        } catch (IOException ex) {
+            throw new LoadCardsException(ex.getMessage());
+        }
+
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        long[] lows            = new long[ranges.size()];
+        long[] highs           = new long[ranges.size()];
+        CardResponse[] details = new CardResponse[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            if (range[1] < range[0] || (i > 0 && range[0] <= highs[i - 1])) {
+                throw new LoadCardsException("The BIN range " + range[0] + "-" + range[1] + " in "
+                        + path.getFileName() + " is empty or overlaps another range.");
+            }
+            lows[i]    = range[0];
+            highs[i]   = range[1];
+            details[i] = entries.get((int) range[2]);
+        }
+        System.out.println("[INFO] - Loaded " + details.length + " BIN ranges from " + path.getFileName());
+        return new LocalBinProvider(lows, highs, details);
+    }
+
+    @Override
+    public CardResponse lookup(String bin) {
+        long value;
+        try {
+            value = Long.parseLong(bin);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+
+        // Find the last range that starts at or before the BIN, which is the only one that can contain it
+        int index = Arrays.binarySearch(lows, value);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index >= 0 && value <= highs[index] ? details[index] : null;
+    }
+
+    /**
+     * Pads the BIN prefix to the full length of a BIN
+     *
+     * @param prefix The BIN prefix
+     * @param digit  The digit to pad it with, which is 0 for the low end of a range and 9 for the high end
+     * @return The BIN as a number
+     */
+    private static long pad(String prefix, char digit) {
+        if (prefix.isEmpty() || prefix.length() > BinCache.BIN_DIGITS) {
+            throw new NumberFormatException(prefix);
+        }
+        StringBuilder sb = new StringBuilder(prefix);
+        while (sb.length() < BinCache.BIN_DIGITS) {
+            sb.append(digit);
+        }
+        return Long.parseLong(sb.toString());
+    }
+
+    /**
+     * Maps the fields of a range to the card details, as they would have been returned by the card lookup API
+     *
+     * @param fields The fields of the line
+     * @return The card details of the range
+     */
+    private static CardResponse toDetails(String[] fields) {
+        CardResponse response = new CardResponse();
+        response.setScheme(valueOf(fields[2]));
+        response.setType(valueOf(fields[3]));
+        response.setBrand(valueOf(fields[4]));
+        response.setPrepaid(Boolean.parseBoolean(fields[5].trim()));
+
+        Country country = new Country();
+        country.setAlpha2(valueOf(fields[6]));
+        country.setName(valueOf(fields[7]));
+        country.setCurrency(valueOf(fields[8]));
+        response.setCountry(country);
+
+        String bank = valueOf(fields[9]);
+        if (bank != null) {
+            response.setBank(Map.of("name", bank));
+        }
+        return response;
+    }
+
+    private static String valueOf(String field) {
+        String value = field.trim();
+        return value.isEmpty() ? null : value;
+    }
+}
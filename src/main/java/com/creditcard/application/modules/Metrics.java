@@ -0,0 +1,303 @@
+package com.creditcard.application.modules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * The registry of all the metrics of the application, which are written out in the Prometheus text format.
+ * <p>
+ * The metrics are registered once, usually as constants of the class that updates them, so updating a metric is only an
+ * increment and never a lookup. A family of metrics with a label only looks up the labelled metric the first time a
+ * label is used. The values that are already counted elsewhere, such as the size of a cache, are read when the metrics
+ * are written instead of being counted twice.
+ */
+public final class Metrics {
+
+    // The quantiles of the timers that are written out
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    // The families in the order they were registered, which is the order they are written in
+    private static final List<Family<?>> FAMILIES = new ArrayList<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * A metric that can be written out
+     */
+    private interface Metric {
+        /**
+         * Writes the samples of the metric
+         *
+         * @param out    The text that the samples are added to
+         * @param name   The name of the family
+         * @param labels The labels of the metric, without the braces, which may be empty
+         */
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    /**
+     * Counts how often something happened
+     */
+    public static final class Counter implements Metric {
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Counts one more
+         */
+        public void increment() {
+            count.increment();
+        }
+
+        /**
+         * Counts the amount more
+         *
+         * @param amount The amount to add to the count
+         */
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            sample(out, name, labels, count.sum());
+        }
+    }
+
+    /**
+     * Measures how long something took
+     */
+    public static final class Timer implements Metric {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        /**
+         * Records the time since the start
+         *
+         * @param startNanos The time that was read with System.nanoTime() at the start
+         */
+        public void recordSince(long startNanos) {
+            histogram.recordSince(startNanos);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            long[] snapshot = histogram.snapshot();
+            String prefix   = labels.isEmpty() ? "" : labels + ",";
+            for (double quantile : QUANTILES) {
+                sample(out, name, prefix + "quantile=\"" + quantile + "\"",
+                        LatencyHistogram.quantile(snapshot, quantile) / NANOS_PER_SECOND);
+            }
+            sample(out, name + "_sum", labels, histogram.getSumNanos() / NANOS_PER_SECOND);
+            sample(out, name + "_count", labels, LatencyHistogram.count(snapshot));
+        }
+    }
+
+    /**
+     * Reads a value that is kept elsewhere whenever the metrics are written
+     *
+     * @param value Reads the value
+     */
+    private record Reading(LongSupplier value) implements Metric {
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            sample(out, name, labels, value.getAsLong());
+        }
+    }
+
+    /**
+     * Reads a fractional value that is kept elsewhere whenever the metrics are written
+     *
+     * @param value Reads the value
+     */
+    private record FractionalReading(DoubleSupplier value) implements Metric {
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            sample(out, name, labels, value.getAsDouble());
+        }
+    }
+
+    /**
+     * The metrics of the same name, which are told apart by the value of their label
+     *
+     * @param <T> The type of the metrics
+     */
+    public static final class Family<T extends Metric> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String label;
+        private final Function<String, T> factory;
+
+        // Keyed by the value of the label, which is empty for a family without a label
+        private final Map<String, T> metrics = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, String label, Function<String, T> factory) {
+            this.name    = name;
+            this.help    = help;
+            this.type    = type;
+            this.label   = label;
+            this.factory = factory;
+        }
+
+        /**
+         * Fetches the metric with the value of the label, creating it the first time the value is used. The values
+         * must come from a small fixed set, such as the routes, as every value is kept.
+         *
+         * @param value The value of the label
+         * @return The metric
+         */
+        public T with(String value) {
+            T metric = metrics.get(value);
+            return metric != null ? metric : metrics.computeIfAbsent(value, factory);
+        }
+
+        private void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            metrics.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> entry.getValue().write(
+                    out, name, label == null ? "" : label + "=\"" + escape(entry.getKey()) + "\""));
+        }
+    }
+
+    // =================================================================================================================
+    // ================================================= Registering ===================================================
+    // =================================================================================================================
+
+    /**
+     * Registers a counter
+     *
+     * @param name The name of the counter, which ends in _total
+     * @param help What the counter counts
+     * @return The counter
+     */
+    public static Counter counter(String name, String help) {
+        return register(new Family<>(name, help, "counter", null, value -> new Counter())).with("");
+    }
+
+    /**
+     * Registers a family of counters with a label
+     *
+     * @param name  The name of the counters, which ends in _total
+     * @param help  What the counters count
+     * @param label The name of the label
+     * @return The family of counters
+     */
+    public static Family<Counter> counters(String name, String help, String label) {
+        return register(new Family<>(name, help, "counter", label, value -> new Counter()));
+    }
+
+    /**
+     * Registers a counter that is already counted elsewhere
+     *
+     * @param name  The name of the counter, which ends in _total
+     * @param help  What the counter counts
+     * @param count Reads the count
+     */
+    public static void counter(String name, String help, LongSupplier count) {
+        register(new Family<>(name, help, "counter", null, value -> new Reading(count))).with("");
+    }
+
+    /**
+     * Registers a gauge, which is read whenever the metrics are written
+     *
+     * @param name  The name of the gauge
+     * @param help  What the gauge measures
+     * @param value Reads the value of the gauge
+     */
+    public static void gauge(String name, String help, LongSupplier value) {
+        register(new Family<>(name, help, "gauge", null, label -> new Reading(value))).with("");
+    }
+
+    /**
+     * Registers a gauge with a fractional value, such as a duration in seconds
+     *
+     * @param name  The name of the gauge
+     * @param help  What the gauge measures
+     * @param value Reads the value of the gauge
+     */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        register(new Family<>(name, help, "gauge", null, label -> new FractionalReading(value))).with("");
+    }
+
+    /**
+     * Registers a timer
+     *
+     * @param name The name of the timer, which ends in _seconds
+     * @param help What the timer measures
+     * @return The timer
+     */
+    public static Timer timer(String name, String help) {
+        return register(new Family<>(name, help, "summary", null, value -> new Timer())).with("");
+    }
+
+    /**
+     * Registers a family of timers with a label
+     *
+     * @param name  The name of the timers, which ends in _seconds
+     * @param help  What the timers measure
+     * @param label The name of the label
+     * @return The family of timers
+     */
+    public static Family<Timer> timers(String name, String help, String label) {
+        return register(new Family<>(name, help, "summary", label, value -> new Timer()));
+    }
+
+    private static <T extends Metric> Family<T> register(Family<T> family) {
+        synchronized (FAMILIES) {
+            for (Family<?> registered : FAMILIES) {
+                if (registered.name.equals(family.name)) {
+                    throw new IllegalArgumentException("The metric " + family.name + " is already registered.");
+                }
+            }
+            FAMILIES.add(family);
+        }
+        return family;
+    }
+
+    // =================================================================================================================
+    // ================================================== Writing ======================================================
+    // =================================================================================================================
+
+    /**
+     * Writes all the metrics in the Prometheus text format
+     *
+     * @return The metrics
+     */
+    public static String write() {
+        StringBuilder out = new StringBuilder(8192);
+        synchronized (FAMILIES) {
+            for (Family<?> family : FAMILIES) {
+                family.write(out);
+            }
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,60 @@
+package com.creditcard.application.modules;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps the stream of the cards.txt file and turns the ~ that separate the saved records into whitespace. This allows
+ * a single json parser to read the records one after the other without the file having to be split first.
+ *
+ * @implNote A ~ inside a json string is part of a value, so it is left as is. The characters that are checked are all
+ * ascii, so they can never be part of a multibyte UTF-8 character.
+ */
+public class RecordSeparatorInputStream extends FilterInputStream {
+
+    private boolean isInString = false;
+    private boolean isEscaped  = false;
+
+    public RecordSeparatorInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        return b == -1 ? b : replace(b);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        for (int i = offset; i < offset + count; i++) {
+            buffer[i] = (byte) replace(buffer[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Keeps track of whether the stream is inside a json string and replaces the separators outside of them
+     *
+     * @param b The byte that was read
+     * @return The byte that should be passed on to the parser
+     */
+    private int replace(int b) {
+        if (isEscaped) {
+            isEscaped = false;
+        } else if (isInString) {
+            if (b == '\\') {
+                isEscaped = true;
+            } else if (b == '"') {
+                isInString = false;
+            }
+        } else if (b == '"') {
+            isInString = true;
+        } else if (b == '~') {
+            return ' ';
+        }
+        return b;
+    }
+}
@@ -0,0 +1,249 @@
+package com.creditcard.application.modules;
+
+import com.creditcard.application.datahandler.CoolTempDatabase;
+import com.creditcard.application.datahandler.CountryIndex;
+import com.creditcard.application.datahandler.JsonCodec;
+import com.creditcard.application.models.cards.CreditCard;
+import com.creditcard.application.models.exceptions.ObjectMapperException;
+import spark.Request;
+import spark.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+
+/**
+ * Keeps the encoded json of the responses that are polled far more often than they change, along with their ETag. A
+ * cached response is sent as it is, and a client that already has it only gets a 304 back, so neither is serialised
+ * again.
+ * <p>
+ * Nothing has to be cleared when the data changes. The banned countries and the card counts are cached along with the
+ * version of the data they were built from, and are built again once that version moves on. A card never changes
+ * apart from its banned flag, so a cached card is only built again if its country has been (un)banned since.
+ */
+public class ResponseCache {
+
+    private final CoolTempDatabase database;
+    private final int maxCards;
+
+    // Kept in access order, so the eldest card is the least recently used one. Guarded by its own lock.
+    private final LinkedHashMap<UUID, CardEntry> cards;
+
+    private volatile VersionedEntry bannedCountries;
+    private volatile VersionedEntry countryCardCounts;
+
+    private final LongAdder hits        = new LongAdder();
+    private final LongAdder misses      = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+
+    /**
+     * The encoded json of a response and its ETag, which must never be changed
+     *
+     * @param json The json in UTF-8
+     * @param etag The quoted ETag of the json
+     */
+    public record Body(byte[] json, String etag) {
+
+        /**
+         * Checks if the client already has this body
+         *
+         * @param ifNoneMatch The If-None-Match header of the request, which may be null
+         * @return If any of the ETags of the header matches this body
+         */
+        public boolean isMatchedBy(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // A weak ETag of the same json matches as well, as the json is only ever compared as a whole
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A body and the version of the data it was built from
+     */
+    private record VersionedEntry(Body body, long version) {
+    }
+
+    /**
+     * The body of a card, and the country and banned flag it was built with
+     */
+    private record CardEntry(Body body, String country, boolean isBanned) {
+    }
+
+    /**
+     * Creates an empty cache
+     *
+     * @param database The database that the responses are built from
+     * @param maxCards The most cards that are kept before the least recently used one is evicted
+     */
+    public ResponseCache(CoolTempDatabase database, int maxCards) {
+        this.database = database;
+        this.maxCards = maxCards;
+        this.cards    = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, CardEntry> eldest) {
+                return size() > ResponseCache.this.maxCards;
+            }
+        };
+    }
+
+    /**
+     * Fetches the response with the banned countries
+     *
+     * @return The body of the banned countries
+     * @throws ObjectMapperException If the banned countries could not be mapped
+     */
+    public Body bannedCountries() throws ObjectMapperException {
+        // The version is read before the data, so a change in between only makes the body be built again
+        long version         = database.getBansVersion();
+        VersionedEntry entry = bannedCountries;
+        if (entry != null && entry.version() == version) {
+            hits.increment();
+            return entry.body();
+        }
+        misses.increment();
+
+        Body body       = encode(String.format("{\"banned\":%s}", JsonCodec.toJson(database.getBannedCountries())));
+        bannedCountries = new VersionedEntry(body, version);
+        return body;
+    }
+
+    /**
+     * Fetches the response with the number of cards that were issued in each country
+     *
+     * @return The body of the card counts
+     * @throws ObjectMapperException If the card counts could not be mapped
+     */
+    public Body countryCardCounts() throws ObjectMapperException {
+        long version         = database.getCardsVersion();
+        VersionedEntry entry = countryCardCounts;
+        if (entry != null && entry.version() == version) {
+            hits.increment();
+            return entry.body();
+        }
+        misses.increment();
+
+        Body body         = encode(String.format("{\"cards\":%s}", JsonCodec.toJson(database.getCountryCardCounts())));
+        countryCardCounts = new VersionedEntry(body, version);
+        return body;
+    }
+
+    /**
+     * Fetches the response with the card. A card that does not exist is not cached, as it could be inserted later.
+     *
+     * @param id The id of the card
+     * @return The body of the card, or null if there is no card with the id
+     * @throws ObjectMapperException If the card could not be mapped
+     */
+    public Body card(UUID id) throws ObjectMapperException {
+        CardEntry entry;
+        synchronized (cards) {
+            entry = cards.get(id);
+        }
+        if (entry != null && database.isBanned(entry.country()) == entry.isBanned()) {
+            hits.increment();
+            return entry.body();
+        }
+        misses.increment();
+
+        CreditCard card = database.getCardById(id);
+        if (card == null) {
+            return null;
+        }
+        Body body = encode(JsonCodec.toJson(card));
+        synchronized (cards) {
+            cards.put(id, new CardEntry(body, CountryIndex.countryOf(card), Boolean.TRUE.equals(card.getIsBanned())));
+        }
+        return body;
+    }
+
+    /**
+     * Sends the body, or only a 304 if the client already has it. The ETag is sent either way.
+     *
+     * @param request  The request with the optional If-None-Match header
+     * @param response The response that the status and ETag are set on
+     * @param body     The body of the response
+     * @return The content of the response
+     */
+    public Object send(Request request, Response response, Body body) {
+        response.header("ETag", body.etag());
+        if (body.isMatchedBy(request.headers("If-None-Match"))) {
+            notModified.increment();
+            response.status(SC_NOT_MODIFIED);
+            return "";
+        }
+        response.status(SC_OK);
+        return body.json();
+    }
+
+    /**
+     * Encodes the json and works out its ETag, which is the first 128 bits of the SHA-256 of the json. A checksum is
+     * not enough here, as two different bodies with the same ETag would have a client keep the wrong one for good.
+     *
+     * @param json The json of the response
+     * @return The body of the response
+     */
+    private static Body encode(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return new Body(bytes, "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException("SHA-256 is not supported.", ex);
+        }
+    }
+
+    /**
+     * The number of responses that were served from the cache
+     *
+     * @return The number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of responses that had to be built
+     *
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of responses that were answered with a 304, as the client already had them
+     *
+     * @return The number of 304 responses
+     */
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    /**
+     * The number of cards that are cached
+     *
+     * @return The number of cards
+     */
+    public int size() {
+        synchronized (cards) {
+            return cards.size();
+        }
+    }
+}
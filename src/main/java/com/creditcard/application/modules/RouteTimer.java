@@ -0,0 +1,78 @@
+package com.creditcard.application.modules;
+
+import spark.Route;
+
+import static spark.Spark.afterAfter;
+import static spark.Spark.before;
+
+/**
+ * Times every request from the moment it arrives until its response is ready to be written, by the route that handled
+ * it, and counts the responses by their status code.
+ * <p>
+ * Spark only tells which route matched inside the route itself, so every route is wrapped with {@link #timed(Route)},
+ * which hands the timer of the route over to the filter that records the time. Requests that did not match any route
+ * are timed together.
+ */
+public final class RouteTimer {
+
+    private static final String STARTED = RouteTimer.class.getName() + ".started";
+    private static final String TIMER   = RouteTimer.class.getName() + ".timer";
+
+    private static final Metrics.Family<Metrics.Timer> ROUTES     = Metrics.timers("http_request_seconds",
+            "The time taken to handle the requests, by the method and route", "route");
+    private static final Metrics.Family<Metrics.Counter> STATUSES = Metrics.counters("http_responses_total",
+            "The responses that were sent, by their status code", "status");
+    private static final Metrics.Timer UNMATCHED                  = ROUTES.with("unmatched");
+
+    // The counters of the status codes, so the label is only looked up the first time a status code is sent
+    private static final Metrics.Counter[] STATUS_COUNTERS = new Metrics.Counter[600];
+
+    private RouteTimer() {
+    }
+
+    /**
+     * Adds the filters that time every request. This has to be done before the routes are added.
+     */
+    public static void install() {
+        before((request, response) -> request.attribute(STARTED, System.nanoTime()));
+        afterAfter((request, response) -> {
+            Long started        = request.attribute(STARTED);
+            Metrics.Timer timer = request.attribute(TIMER);
+            if (started != null) {
+                (timer == null ? UNMATCHED : timer).recordSince(started);
+            }
+            statusCounter(response.status()).increment();
+        });
+    }
+
+    /**
+     * Wraps the route, so its requests are timed under the method and path that it was added with
+     *
+     * @param route The route to be timed
+     * @return The timed route
+     */
+    public static Route timed(Route route) {
+        Metrics.Timer[] timer = new Metrics.Timer[1];
+        return (request, response) -> {
+            // The matched path is the same for every request of the route, so the timer is only looked up once
+            if (timer[0] == null) {
+                timer[0] = ROUTES.with(request.requestMethod() + " " + request.matchedPath());
+            }
+            request.attribute(TIMER, timer[0]);
+            return route.handle(request, response);
+        };
+    }
+
+    private static Metrics.Counter statusCounter(int status) {
+        if (status < 0 || status >= STATUS_COUNTERS.length) {
+            return STATUSES.with(Integer.toString(status));
+        }
+        Metrics.Counter counter = STATUS_COUNTERS[status];
+        if (counter == null) {
+            // Racing threads all get the same counter from the family, so it does not matter which one is kept
+            counter                 = STATUSES.with(Integer.toString(status));
+            STATUS_COUNTERS[status] = counter;
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,96 @@
+package com.creditcard.application.modules;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Jetty ThreadPool that runs every task on its own virtual thread. A request that blocks, like on a BIN lookup or a
+ * write to the card log, then only parks its virtual thread instead of holding on to one of a limited number of
+ * platform threads, so the number of concurrent requests is no longer capped by the size of the pool.
+ * <p>
+ * Virtual threads are cheap to create and are never reused, so there are no idle threads and the pool is never low on
+ * threads.
+ * <p>
+ * The pool is started and stopped along with the Jetty server, which manages it as a bean. Stopping it shuts the
+ * executor down, waits for the running tasks up to the stop timeout and then interrupts them, after which join returns.
+ * Starting it again creates a new executor, as Spark builds a new server when it is initialised again after a stop.
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private volatile ExecutorService executor;
+
+    // The number of tasks that are currently running
+    private final AtomicInteger running = new AtomicInteger();
+
+    @Override
+    protected void doStart() throws Exception {
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("jetty-virtual-", 0).factory());
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        executor.shutdown();
+        if (!executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS)) {
+            System.out.println("[WARN] - Interrupting " + running.get() + " tasks that did not finish in time.");
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the task on a virtual thread of its own
+     *
+     * @param task The task
+     * @throws RejectedExecutionException If the pool is not running
+     */
+    @Override
+    public void execute(Runnable task) {
+        ExecutorService executor = this.executor;
+        if (executor == null) {
+            throw new RejectedExecutionException("The thread pool has not been started.");
+        }
+        executor.execute(() -> {
+            running.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Waits until the pool has been stopped and its tasks have finished or been interrupted
+     *
+     * @throws InterruptedException If the waiting thread was interrupted
+     */
+    @Override
+    public void join() throws InterruptedException {
+        ExecutorService executor = this.executor;
+        if (executor != null) {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public int getThreads() {
+        return running.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
@@ -0,0 +1,155 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.BanDelta;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.cards.CreditCard;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Checks that every kind of record decodes to what was encoded, and that the frame and header guard the records
+ */
+public class CardCodecTest {
+
+    @Test
+    public void aCardDecodesToTheCardAndTheKeyOfItsDetails() {
+        CreditCard card = card("4000000000000002", "Jürgen Ō'Brien");
+        card.setIsBanned(true);
+
+        ByteBuffer payload                = payload(CardCodec.encode(card, 42));
+        CardCodec.CardReference reference = CardCodec.decodeCard(payload.get(), payload);
+
+        assertEquals(card, reference.card());
+        assertEquals(42, reference.detailsKey());
+        assertEquals(0, payload.remaining());
+    }
+
+    @Test
+    public void aCardWithoutAHolderKeepsItsNullHolder() {
+        CreditCard card = card("4000000000000010", null);
+
+        ByteBuffer payload                = payload(CardCodec.encode(card, CardCodec.NO_DETAILS));
+        CardCodec.CardReference reference = CardCodec.decodeCard(payload.get(), payload);
+
+        assertNull(reference.card().getCardHolder());
+        assertEquals(CardCodec.NO_DETAILS, reference.detailsKey());
+    }
+
+    @Test
+    public void detailsDecodeToEqualDetails() {
+        CardResponse details = details();
+        long key             = CardCodec.detailsKey(details);
+
+        ByteBuffer payload = payload(CardCodec.encodeDetails(key, details));
+        assertEquals(CardCodec.TYPE_DETAILS, payload.get());
+        assertEquals(key, CardCodec.decodeDetailsKey(payload));
+        assertEquals(details, CardCodec.decodeDetails(payload));
+        assertEquals(0, payload.remaining());
+    }
+
+    @Test
+    public void equalDetailsHaveTheSameKey() {
+        CardResponse other = details();
+        assertEquals(CardCodec.detailsKey(details()), CardCodec.detailsKey(other));
+        assertEquals(CardCodec.NO_DETAILS, CardCodec.detailsKey(null));
+
+        other.getCountry().setName("Kenya");
+        assertNotEquals(CardCodec.detailsKey(details()), CardCodec.detailsKey(other));
+    }
+
+    @Test
+    public void banAndUnbanDecodeToTheSameChange() {
+        for (boolean isBanned : new boolean[]{true, false}) {
+            BanDelta delta     = new BanDelta("Côte d'Ivoire", isBanned, 1_700_000_000_000L);
+            ByteBuffer payload = payload(CardCodec.encode(delta));
+            byte type          = payload.get();
+
+            assertEquals(isBanned ? CardCodec.TYPE_BAN : CardCodec.TYPE_UNBAN, type);
+            assertEquals(delta, CardCodec.decodeBanDelta(type, payload));
+        }
+    }
+
+    @Test
+    public void aChangedByteNoLongerMatchesTheChecksum() {
+        byte[] record    = CardCodec.encode(card("4000000000000028", "Ama Mensah"), 7);
+        ByteBuffer frame = ByteBuffer.wrap(record);
+        int length       = frame.getInt();
+        int checksum     = frame.getInt();
+        assertEquals(checksum, CardCodec.checksum(frame, length));
+
+        record[record.length - 1] ^= 1;
+        assertNotEquals(checksum, CardCodec.checksum(frame, length));
+    }
+
+    @Test
+    public void theHeaderIsCheckedForTheMagicAndVersion() throws IOException {
+        CardCodec.checkHeader(ByteBuffer.wrap(CardCodec.header()));
+
+        byte[] notCards = CardCodec.header();
+        notCards[0]     = 'X';
+        assertThrows(IOException.class, () -> CardCodec.checkHeader(ByteBuffer.wrap(notCards)));
+
+        byte[] newer = CardCodec.header();
+        ByteBuffer.wrap(newer).putShort(CardCodec.MAGIC.length, (short) (CardCodec.VERSION + 1));
+        assertThrows(IOException.class, () -> CardCodec.checkHeader(ByteBuffer.wrap(newer)));
+    }
+
+    /**
+     * Checks the length and checksum of the framed record and returns its payload
+     */
+    private static ByteBuffer payload(byte[] record) {
+        ByteBuffer frame = ByteBuffer.wrap(record);
+        int length       = frame.getInt();
+        int checksum     = frame.getInt();
+        assertEquals(record.length - CardCodec.FRAME_BYTES, length);
+        assertEquals(checksum, CardCodec.checksum(frame, length));
+        return frame.slice();
+    }
+
+    private static CreditCard card(String number, String holder) {
+        CreditCard card = new CreditCard();
+        card.setId(UUID.randomUUID());
+        card.setCardNumber(number);
+        card.setCardHolder(holder);
+        return card;
+    }
+
+    private static CardResponse details() {
+        Country country = new Country();
+        country.setNumeric("288");
+        country.setAlpha2("GH");
+        country.setName("Ghana");
+        country.setEmoji("🇬🇭");
+        country.setCurrency("GHS");
+        country.setLatitude(8);
+        country.setLongitude(-2);
+
+        Map<String, Object> number = new LinkedHashMap<>();
+        number.put("length", 16);
+        number.put("luhn", true);
+        number.put("ratio", 0.5);
+        number.put("prefix", "4000");
+        number.put("missing", null);
+
+        CardResponse details = new CardResponse();
+        details.setNumber(number);
+        details.setScheme("visa");
+        details.setType("debit");
+        details.setBrand(null);
+        details.setPrepaid(true);
+        details.setCountry(country);
+        details.setBank(Map.of("name", "Bank of Ghana"));
+        return details;
+    }
+}
@@ -0,0 +1,275 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardCreate;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.cards.CreditCard;
+import com.creditcard.application.models.responses.CardResult;
+import com.creditcard.application.models.responses.Rejection;
+import com.creditcard.application.modules.FileModule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers the CoolTempDatabase with single and batch inserts of overlapping card numbers while other threads keep
+ * banning and unbanning the countries of the cards, and then checks that the cards, the counts, the log and a restart
+ * all agree with each other.
+ */
+public class CoolTempDatabaseStressTest {
+
+    private static final String[] COUNTRIES = {"Ghana", "Kenya", "Japan", "Norway"};
+
+    private static final int INSERT_THREADS   = 8;
+    private static final int BAN_THREADS      = 2;
+    private static final int CARDS_PER_THREAD = 1500;
+    private static final int BATCH_SIZE       = 10;
+
+    // Fewer numbers than inserts, so every number is raced for by several threads
+    private static final int NUMBERS = 4000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private FileModule fileModule;
+    private CoolTempDatabase database;
+    private WriteAheadLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath();
+        Files.writeString(directory.resolve("banned-countries.txt"), "");
+        fileModule = new FileModule(2, directory);
+        database   = new CoolTempDatabase(fileModule);
+        log        = fileModule.openLog(Durability.BATCH, 0);
+        database.attachLog(log);
+    }
+
+    @Test
+    public void insertsRacingBansAndDuplicatesKeepEveryInvariant() throws Exception {
+        Queue<CreditCard> accepted = new ConcurrentLinkedQueue<>();
+        Queue<String> duplicates   = new ConcurrentLinkedQueue<>();
+        AtomicInteger banned       = new AtomicInteger();
+        AtomicBoolean inserting    = new AtomicBoolean(true);
+        CountDownLatch start       = new CountDownLatch(1);
+        ExecutorService pool       = Executors.newFixedThreadPool(INSERT_THREADS + BAN_THREADS);
+        List<Future<?>> inserters  = new ArrayList<>();
+        List<Future<?>> banners    = new ArrayList<>();
+
+        for (int t = 0; t < INSERT_THREADS; t++) {
+            int thread = t;
+            inserters.add(pool.submit(() -> {
+                start.await();
+                Random random          = new Random(thread);
+                List<CreditCard> batch = new ArrayList<>();
+                for (int i = 0; i < CARDS_PER_THREAD; i++) {
+                    int index = random.nextInt(NUMBERS);
+                    if (thread % 2 == 0) {
+                        CardResult result = database.insertCreditCard(create(index), details(index));
+                        if (result.isAccepted()) {
+                            accepted.add(result.getCard());
+                        } else {
+                            count(result.getRejection(), number(index), duplicates, banned);
+                        }
+                        continue;
+                    }
+
+                    // The odd threads import the same kind of cards in batches
+                    batch.add(database.newCreditCard(create(index), details(index)));
+                    if (batch.size() == BATCH_SIZE || i == CARDS_PER_THREAD - 1) {
+                        List<Rejection> rejections = database.insertCreditCards(batch);
+                        for (int j = 0; j < batch.size(); j++) {
+                            if (rejections.get(j) == null) {
+                                accepted.add(batch.get(j));
+                            } else {
+                                count(rejections.get(j), batch.get(j).getCardNumber(), duplicates, banned);
+                            }
+                        }
+                        batch.clear();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (int t = 0; t < BAN_THREADS; t++) {
+            int thread = t;
+            banners.add(pool.submit(() -> {
+                start.await();
+                Random random = new Random(100 + thread);
+                while (inserting.get()) {
+                    String country = COUNTRIES[random.nextInt(COUNTRIES.length)];
+                    if (random.nextBoolean()) {
+                        database.banCountries(List.of(country));
+                    } else {
+                        database.unbanCountries(List.of(country.toUpperCase()));
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> inserter : inserters) {
+            inserter.get(2, TimeUnit.MINUTES);
+        }
+        inserting.set(false);
+        for (Future<?> banner : banners) {
+            banner.get(1, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+
+        // Every card number was accepted at most once, and every duplicate was of an accepted number
+        Map<String, CreditCard> byNumber = new HashMap<>();
+        for (CreditCard card : accepted) {
+            assertTrue("The number " + card.getCardNumber() + " was accepted twice",
+                    byNumber.put(card.getCardNumber(), card) == null);
+        }
+        for (String number : duplicates) {
+            assertTrue("The duplicate " + number + " was never accepted", byNumber.containsKey(number));
+        }
+        assertEquals(INSERT_THREADS * CARDS_PER_THREAD, accepted.size() + duplicates.size() + banned.get());
+        assertFalse("Nothing was rejected as a duplicate", duplicates.isEmpty());
+        assertTrue("Nothing was rejected as banned", banned.get() > 0);
+
+        // The storage, the country counts and the lookups all agree with the accepted cards
+        assertEquals(accepted.size(), database.getCardCount());
+        Map<String, Integer> expectedCounts = new TreeMap<>();
+        for (CreditCard card : accepted) {
+            expectedCounts.merge(CountryIndex.countryOf(card), 1, Integer::sum);
+            CreditCard stored = database.getCardById(card.getId());
+            assertNotNull("The card " + card.getId() + " was accepted but cannot be found", stored);
+            assertEquals(card.getCardNumber(), stored.getCardNumber());
+            assertTrue(database.isCardDuplicate(card.getCardNumber()));
+        }
+        assertEquals(expectedCounts, database.getCountryCardCounts());
+
+        // The log has every accepted card, none of which was saved while its country was banned
+        Set<String> bannedInLog = replayLog(byNumber);
+        assertEquals(normalised(database.getBannedCountries()), bannedInLog);
+
+        // A restart loads the same cards and banned countries
+        log.close();
+        CoolTempDatabase restarted = new CoolTempDatabase(new FileModule(2, directory));
+        assertEquals(database.getCardCount(), restarted.getCardCount());
+        assertEquals(database.getCountryCardCounts(), restarted.getCountryCardCounts());
+        assertEquals(normalised(database.getBannedCountries()), normalised(restarted.getBannedCountries()));
+        for (CreditCard card : accepted) {
+            assertNotNull(restarted.getCardById(card.getId()));
+        }
+    }
+
+    /**
+     * Reads the log in the order it was written and checks that no card was saved into a banned country
+     *
+     * @param accepted The accepted cards by their number
+     * @return The banned countries at the end of the log
+     * @throws Exception If the log could not be read
+     */
+    private Set<String> replayLog(Map<String, CreditCard> accepted) throws Exception {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(fileModule.resource(FileModule.SEGMENT_PREFIX, 1)));
+        file.position(CardCodec.HEADER_BYTES);
+
+        Map<Long, String> countries = new HashMap<>();
+        Set<String> banned          = new HashSet<>();
+        Set<UUID> logged            = new HashSet<>();
+        while (file.hasRemaining()) {
+            int length         = file.getInt();
+            int checksum       = file.getInt();
+            assertEquals(checksum, CardCodec.checksum(file, length));
+            ByteBuffer payload = file.slice(file.position(), length);
+            file.position(file.position() + length);
+
+            byte type = payload.get();
+            switch (type) {
+                case CardCodec.TYPE_DETAILS -> {
+                    long key = CardCodec.decodeDetailsKey(payload);
+                    countries.put(key, CardCodec.decodeDetails(payload).getCountry().getName());
+                }
+                case CardCodec.TYPE_CARD_REF -> {
+                    CardCodec.CardReference reference = CardCodec.decodeCard(type, payload);
+                    String country                    = countries.get(reference.detailsKey());
+                    assertNotNull("A card was saved before its details", country);
+                    assertFalse("A card was saved while " + country + " was banned",
+                            banned.contains(CountryIndex.normalise(country)));
+                    assertTrue(logged.add(reference.card().getId()));
+                    assertEquals(accepted.get(reference.card().getCardNumber()).getId(), reference.card().getId());
+                }
+                case CardCodec.TYPE_BAN, CardCodec.TYPE_UNBAN -> {
+                    String country = CountryIndex.normalise(CardCodec.decodeBanDelta(type, payload).getCountry());
+                    if (type == CardCodec.TYPE_BAN) {
+                        assertTrue(country + " was banned twice in a row", banned.add(country));
+                    } else {
+                        assertTrue(country + " was unbanned while not banned", banned.remove(country));
+                    }
+                }
+                default -> throw new AssertionError("Unexpected record type " + type);
+            }
+        }
+        assertEquals(accepted.size(), logged.size());
+        return banned;
+    }
+
+    private static void count(Rejection rejection, String number, Queue<String> duplicates, AtomicInteger banned) {
+        switch (rejection) {
+            case DUPLICATE -> duplicates.add(number);
+            case BANNED    -> banned.incrementAndGet();
+            default        -> throw new AssertionError("Unexpected rejection " + rejection);
+        }
+    }
+
+    private static Set<String> normalised(List<String> countries) {
+        Set<String> result = new HashSet<>();
+        countries.forEach(country -> result.add(CountryIndex.normalise(country)));
+        return result;
+    }
+
+    private static String number(int index) {
+        return String.valueOf(4000_0000_0000_0000L + index);
+    }
+
+    private static CardCreate create(int index) {
+        CardCreate create = new CardCreate();
+        create.setCardHolder("Holder " + index);
+        create.setCardNumber(number(index));
+        return create;
+    }
+
+    // A new details object for every card, as a lookup would return
+    private static CardResponse details(int index) {
+        Country country = new Country();
+        country.setName(COUNTRIES[index % COUNTRIES.length]);
+        CardResponse details = new CardResponse();
+        details.setScheme("visa");
+        details.setCountry(country);
+        return details;
+    }
+}
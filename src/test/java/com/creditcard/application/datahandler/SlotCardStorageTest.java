@@ -0,0 +1,277 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.cards.CreditCard;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the slots, the id and number tables and the orders of the SlotCardStorage, through the heap storage
+ */
+public class SlotCardStorageTest {
+
+    private final CardStorage storage = new PackedCardStorage(0);
+
+    @Test
+    public void addedCardsAreFoundByIdAndNumber() {
+        List<CreditCard> cards = add(100);
+
+        assertEquals(100, storage.size());
+        for (CreditCard card : cards) {
+            assertEquals(card, storage.get(card.getId()));
+            assertTrue(storage.containsNumber(card.getCardNumber()));
+        }
+        assertTrue(storage.containsNumber("4000 0000 0000 0000"));
+        assertFalse(storage.containsNumber(number(100)));
+        assertNull(storage.get(UUID.randomUUID()));
+    }
+
+    @Test
+    public void aReservedCardClaimsItsNumberButStaysHiddenUntilPublished() {
+        CreditCard card = card(number(1));
+        int slot        = storage.reserve(card);
+
+        assertTrue(slot >= 0);
+        assertTrue(storage.containsNumber(card.getCardNumber()));
+        assertEquals(-1, storage.reserve(card(number(1))));
+        assertEquals(-1, storage.reserve(card("4000 0000 0000 0001")));
+        assertNull(storage.get(card.getId()));
+        assertEquals(0, storage.size());
+        assertFalse(storage.iterator(null, CardOrder.INSERTION).hasNext());
+
+        storage.publish(slot);
+        assertEquals(card, storage.get(card.getId()));
+        assertEquals(1, storage.size());
+        assertEquals(List.of(card), list(storage.iterator(null, CardOrder.INSERTION)));
+    }
+
+    @Test
+    public void aReleasedCardGivesItsNumberBackAndIsNeverSeen() {
+        CreditCard card = card(number(1));
+        int slot        = storage.reserve(card);
+        storage.release(slot);
+
+        assertFalse(storage.containsNumber(card.getCardNumber()));
+        assertNull(storage.get(card.getId()));
+
+        // Publishing a released slot does nothing, and the number can be claimed by another card
+        storage.publish(slot);
+        assertNull(storage.get(card.getId()));
+        CreditCard retry = card(number(1));
+        storage.publish(storage.reserve(retry));
+        assertEquals(List.of(retry), list(storage.iterator(null, CardOrder.INSERTION)));
+        assertEquals(List.of(retry), list(storage.iterator(null, CardOrder.ID)));
+    }
+
+    @Test
+    public void releasingNumbersKeepsTheOtherNumbersFindable() {
+        // Enough numbers for the table to grow and for the probe sequences to run into each other
+        Random random          = new Random(7);
+        List<String> numbers   = new ArrayList<>();
+        List<Integer> reserved = new ArrayList<>();
+        while (numbers.size() < SlotCardStorage.MIN_CAPACITY * 3) {
+            String number = String.valueOf(4000_0000_0000_0000L + random.nextInt(1_000_000_000));
+            int slot      = storage.reserve(card(number));
+            if (slot >= 0) {
+                numbers.add(number);
+                reserved.add(slot);
+            }
+        }
+
+        // Release a random half of the numbers, in a random order, which leaves tombstones in the probe sequences
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < numbers.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+        List<Integer> released = order.subList(0, order.size() / 2);
+        for (int i : released) {
+            storage.release(reserved.get(i));
+        }
+
+        for (int i = 0; i < numbers.size(); i++) {
+            assertEquals(numbers.get(i), !released.contains(i), storage.containsNumber(numbers.get(i)));
+        }
+    }
+
+    @Test
+    public void theTablesGrowPastTheirFirstCapacity() {
+        List<CreditCard> cards = add(SlotCardStorage.MIN_CAPACITY * 10);
+
+        assertEquals(cards.size(), storage.size());
+        for (CreditCard card : cards) {
+            assertEquals(card, storage.get(card.getId()));
+            assertTrue(storage.containsNumber(card.getCardNumber()));
+        }
+        assertEquals(cards, list(storage.iterator(null, CardOrder.INSERTION)));
+        assertEquals(sortedById(cards), list(storage.iterator(null, CardOrder.ID)));
+    }
+
+    @Test
+    public void numbersThatCannotBePackedAreKeptAsTheyAre() {
+        List<CreditCard> cards = new ArrayList<>();
+        for (String number : new String[]{"0000 1234", "4000-0000-0000-0002", "12345678901234567890", "", "9999"}) {
+            CreditCard card = card(number);
+            storage.add(card);
+            cards.add(card);
+        }
+
+        // The whitespace is taken out, while everything else is kept as it was, including the leading zeros
+        assertEquals("00001234", storage.get(cards.get(0).getId()).getCardNumber());
+        for (CreditCard card : cards.subList(1, cards.size())) {
+            assertEquals(card.getCardNumber(), storage.get(card.getId()).getCardNumber());
+            assertTrue(storage.containsNumber(card.getCardNumber()));
+        }
+        assertTrue(storage.containsNumber("00001234"));
+        assertFalse(storage.containsNumber("1234"));
+        assertEquals(-1, storage.reserve(card("4000-0000-0000-0002")));
+        assertEquals(-1, storage.reserve(card("12345678901234567890")));
+
+        int slot = storage.reserve(card("4000-0000-0000-0010"));
+        storage.release(slot);
+        assertFalse(storage.containsNumber("4000-0000-0000-0010"));
+        assertTrue(storage.containsNumber("4000-0000-0000-0002"));
+    }
+
+    @Test
+    public void loadedCardsWithTheSameNumberAreAllKept() {
+        CreditCard first  = card(number(1));
+        CreditCard second = card(number(1));
+        storage.add(first);
+        storage.add(second);
+
+        assertEquals(2, storage.size());
+        assertEquals(List.of(first, second), list(storage.iterator(null, CardOrder.INSERTION)));
+        assertEquals(second, storage.get(second.getId()));
+    }
+
+    @Test
+    public void theCursorsContinueAfterTheCard() {
+        List<CreditCard> cards  = add(50);
+        List<CreditCard> sorted = sortedById(cards);
+
+        assertEquals(cards.subList(21, 50), list(storage.iterator(cards.get(20).getId(), CardOrder.INSERTION)));
+        assertEquals(sorted.subList(31, 50), list(storage.iterator(sorted.get(30).getId(), CardOrder.ID)));
+        assertFalse(storage.iterator(sorted.get(49).getId(), CardOrder.ID).hasNext());
+
+        // An id that is not a card still has a place in the id order, which is signed like UUID.compareTo, but not in
+        // the insertion order
+        UUID missing = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+        assertEquals(sorted, list(storage.iterator(missing, CardOrder.ID)));
+        assertThrows(IllegalArgumentException.class, () -> storage.iterator(missing, CardOrder.INSERTION));
+    }
+
+    @Test
+    public void theInsertionOrderPicksUpCardsPublishedWhileWalking() {
+        List<CreditCard> cards          = add(3);
+        Iterator<CreditCard> insertions = storage.iterator(null, CardOrder.INSERTION);
+        Iterator<CreditCard> ids        = storage.iterator(null, CardOrder.ID);
+        assertEquals(cards.get(0), insertions.next());
+        ids.next();
+
+        CreditCard later = card(number(3));
+        storage.add(later);
+        assertEquals(List.of(cards.get(1), cards.get(2), later), list(insertions));
+
+        // The id order is fixed when the walk starts
+        assertEquals(2, list(ids).size());
+        assertEquals(4, list(storage.iterator(null, CardOrder.ID)).size());
+    }
+
+    @Test
+    public void racingInsertsClaimEveryNumberOnce() throws InterruptedException {
+        // Every thread inserts the same numbers, enough of them for the columns and the tables to grow in between
+        int threads         = 4;
+        int numbers         = SlotCardStorage.MIN_CAPACITY * 4;
+        AtomicInteger won   = new AtomicInteger();
+        CountDownLatch go   = new CountDownLatch(1);
+        List<Thread> racers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread racer = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < numbers; i++) {
+                    int slot = storage.reserve(card(number(i)));
+                    if (slot >= 0) {
+                        storage.publish(slot);
+                        won.incrementAndGet();
+                    }
+                }
+            });
+            racer.start();
+            racers.add(racer);
+        }
+        go.countDown();
+        for (Thread racer : racers) {
+            racer.join();
+        }
+
+        assertEquals(numbers, won.get());
+        assertEquals(numbers, storage.size());
+        List<CreditCard> cards = list(storage.iterator(null, CardOrder.INSERTION));
+        assertEquals(numbers, cards.size());
+        assertEquals(sortedById(cards), list(storage.iterator(null, CardOrder.ID)));
+        for (CreditCard card : cards) {
+            assertEquals(card, storage.get(card.getId()));
+        }
+    }
+
+    private List<CreditCard> add(int count) {
+        List<CreditCard> cards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CreditCard card = card(number(i));
+            storage.add(card);
+            cards.add(card);
+        }
+        return cards;
+    }
+
+    private static List<CreditCard> sortedById(List<CreditCard> cards) {
+        List<CreditCard> sorted = new ArrayList<>(cards);
+        sorted.sort(Comparator.comparing(CreditCard::getId));
+        return sorted;
+    }
+
+    private static List<CreditCard> list(Iterator<CreditCard> cards) {
+        List<CreditCard> list = new ArrayList<>();
+        cards.forEachRemaining(list::add);
+        return list;
+    }
+
+    private static String number(int index) {
+        return String.valueOf(4000_0000_0000_0000L + index);
+    }
+
+    private static CreditCard card(String number) {
+        Country country = new Country();
+        country.setName("Ghana");
+        CardResponse details = new CardResponse();
+        details.setCountry(country);
+
+        CreditCard card = new CreditCard();
+        card.setId(UUID.randomUUID());
+        card.setCardNumber(number);
+        card.setCardHolder("Holder of " + number);
+        card.setDetails(details);
+        return card;
+    }
+}
@@ -0,0 +1,144 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.CardCreate;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.cards.CreditCard;
+import com.creditcard.application.modules.FileModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a restart after a snapshot loads the same cards and banned countries as before it, from the snapshot and
+ * the segment written after it
+ */
+public class SnapshotterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private FileModule fileModule;
+    private CoolTempDatabase database;
+    private WriteAheadLog log;
+    private Snapshotter snapshotter;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath();
+        Files.writeString(directory.resolve("banned-countries.txt"), "");
+        fileModule  = new FileModule(2, directory);
+        database    = new CoolTempDatabase(fileModule);
+        log         = fileModule.openLog(Durability.BATCH, 0);
+        database.attachLog(log);
+        snapshotter = new Snapshotter(database, fileModule, log, 10, 0);
+    }
+
+    @After
+    public void tearDown() {
+        snapshotter.close();
+    }
+
+    @Test
+    public void aRestartAfterASnapshotLoadsTheSameCards() throws Exception {
+        insert(0, 20);
+        database.banCountries(List.of("Kenya"));
+        snapshotter.snapshot();
+
+        // The old segment is replaced by the snapshot, and the cards after it go to the new segment
+        assertEquals(1, snapshotter.getSnapshots());
+        assertTrue(snapshotter.getLastSnapshotBytes() > 0);
+        assertTrue(Files.exists(fileModule.resource(FileModule.SNAPSHOT_PREFIX, 2)));
+        assertFalse(Files.exists(fileModule.resource(FileModule.SEGMENT_PREFIX, 1)));
+
+        insert(20, 30);
+        database.unbanCountries(List.of("Kenya"));
+        database.banCountries(List.of("Japan"));
+
+        assertRestartMatches();
+    }
+
+    @Test
+    public void aRestartAfterSeveralSnapshotsLoadsTheSameCards() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            insert(round * 10, round * 10 + 10);
+            database.banCountries(List.of(round % 2 == 0 ? "Ghana" : "Norway"));
+            snapshotter.snapshot();
+        }
+        assertEquals(3, snapshotter.getSnapshots());
+        assertEquals(List.of(fileModule.resource(FileModule.SNAPSHOT_PREFIX, 4)), files(FileModule.SNAPSHOT_PREFIX));
+        assertEquals(List.of(fileModule.resource(FileModule.SEGMENT_PREFIX, 4)), files(FileModule.SEGMENT_PREFIX));
+
+        assertRestartMatches();
+    }
+
+    @Test
+    public void aSnapshotIsTakenInTheBackgroundOnceEnoughRecordsAreWritten() throws Exception {
+        snapshotter.start();
+        insert(0, 10);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (snapshotter.getSnapshots() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, snapshotter.getSnapshots());
+
+        assertRestartMatches();
+    }
+
+    /**
+     * Closes the log, as a shutdown would, and loads the files into a new database
+     */
+    private void assertRestartMatches() throws Exception {
+        log.close();
+        CoolTempDatabase restarted = new CoolTempDatabase(new FileModule(2, directory));
+        assertFalse(cards(database).isEmpty());
+        assertEquals(cards(database), cards(restarted));
+        assertEquals(database.getCountryCardCounts(), restarted.getCountryCardCounts());
+        assertEquals(new HashSet<>(database.getBannedCountries()), new HashSet<>(restarted.getBannedCountries()));
+    }
+
+    private void insert(int from, int to) throws Exception {
+        String[] countries = {"Ghana", "Kenya", "Japan", "Norway"};
+        for (int i = from; i < to; i++) {
+            CardCreate create = new CardCreate();
+            create.setCardHolder("Holder " + i);
+            create.setCardNumber(String.valueOf(4000_0000_0000_0000L + i));
+
+            Country country = new Country();
+            country.setName(countries[i % countries.length]);
+            CardResponse details = new CardResponse();
+            details.setScheme("visa");
+            details.setCountry(country);
+            // The cards of banned countries are rejected, which leaves them out of the files as well
+            database.insertCreditCard(create, details);
+        }
+    }
+
+    private static List<CreditCard> cards(CoolTempDatabase database) {
+        List<CreditCard> cards = new ArrayList<>();
+        database.iterateCards(null, CardOrder.INSERTION).forEachRemaining(cards::add);
+        return cards;
+    }
+
+    private List<Path> files(String prefix) throws Exception {
+        List<Path> files = new ArrayList<>();
+        try (var paths = Files.list(directory)) {
+            paths.filter(path -> path.getFileName().toString().startsWith(prefix)).forEach(files::add);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,302 @@
+package com.creditcard.application.datahandler;
+
+import com.creditcard.application.models.cards.BanDelta;
+import com.creditcard.application.models.exceptions.SaveCardsException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the write-ahead log keeps every acknowledged write, and only the acknowledged writes, in order
+ */
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void concurrentAppendsAreAllWrittenWhole() throws Exception {
+        Path path            = folder.getRoot().toPath().resolve("log.dat");
+        int threads          = 8;
+        int appendsPerThread = 250;
+        try (WriteAheadLog log = new WriteAheadLog(path, CardCodec.header(), Durability.BATCH, 0)) {
+            ExecutorService pool  = Executors.newFixedThreadPool(threads);
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                tasks.add(pool.submit(() -> {
+                    for (int i = 0; i < appendsPerThread; i++) {
+                        // Two records in one append, which must never be split by the records of other threads
+                        log.append(List.of(record(thread + "-" + i), record(thread + "-" + i)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            pool.shutdown();
+            assertEquals(threads * appendsPerThread * 2L, log.getWrittenRecords());
+        }
+
+        List<String> countries = read(path);
+        assertEquals(threads * appendsPerThread * 2, countries.size());
+        for (int i = 0; i < countries.size(); i += 2) {
+            assertEquals(countries.get(i), countries.get(i + 1));
+        }
+    }
+
+    @Test
+    public void aFailedSyncIsRemovedFromTheFile() throws Exception {
+        Path path              = folder.getRoot().toPath().resolve("log.dat");
+        FailingChannel[] files = new FailingChannel[1];
+        try (WriteAheadLog log = open(path, files)) {
+            log.append(List.of(record("Ghana")));
+            files[0].failForce = true;
+            assertFails(log, "Kenya");
+            files[0].failForce = false;
+            log.append(List.of(record("Japan")));
+        }
+        assertEquals(List.of("Ghana", "Japan"), read(path));
+    }
+
+    @Test
+    public void aPartialWriteIsRemovedFromTheFile() throws Exception {
+        Path path              = folder.getRoot().toPath().resolve("log.dat");
+        FailingChannel[] files = new FailingChannel[1];
+        try (WriteAheadLog log = open(path, files)) {
+            log.append(List.of(record("Ghana")));
+            files[0].failWriteAfter = 5;
+            assertFails(log, "Kenya");
+            files[0].failWriteAfter = -1;
+            log.append(List.of(record("Japan")));
+        }
+        assertEquals(List.of("Ghana", "Japan"), read(path));
+    }
+
+    @Test
+    public void aFailedWriteThatCannotBeRemovedStopsTheLog() throws Exception {
+        Path path              = folder.getRoot().toPath().resolve("log.dat");
+        FailingChannel[] files = new FailingChannel[1];
+        try (WriteAheadLog log = open(path, files)) {
+            log.append(List.of(record("Ghana")));
+            files[0].failForce    = true;
+            files[0].failTruncate = true;
+            assertFails(log, "Kenya");
+
+            // Even once the file works again, the end of the log is unknown, so nothing else may be written
+            files[0].failForce    = false;
+            files[0].failTruncate = false;
+            assertFails(log, "Japan");
+        }
+        assertEquals("Ghana", read(path).get(0));
+    }
+
+    @Test
+    public void aFailedRollLeavesNoNewFileBehind() throws Exception {
+        Path path              = folder.getRoot().toPath().resolve("log.dat");
+        Path next              = folder.getRoot().toPath().resolve("next.dat");
+        FailingChannel[] files = new FailingChannel[1];
+        try (WriteAheadLog log = open(path, files)) {
+            log.append(List.of(record("Ghana")));
+
+            // The old file could not be synced, so the new file is never opened and the log carries on in the old one
+            FailingChannel old = files[0];
+            old.failForce      = true;
+            assertThrows(IOException.class, () -> log.roll(next));
+            assertFalse(Files.exists(next));
+            assertSame(old, files[0]);
+            old.failForce = false;
+            log.append(List.of(record("Kenya")));
+
+            // The old file could not be closed, so the new file is closed again and removed, and the log stops
+            old.failClose = true;
+            assertThrows(IOException.class, () -> log.roll(next));
+            assertFalse(Files.exists(next));
+            assertFalse(files[0].isOpen());
+            assertFails(log, "Japan");
+        }
+        assertEquals(List.of("Ghana", "Kenya"), read(path));
+    }
+
+    private static void assertFails(WriteAheadLog log, String country) {
+        try {
+            log.append(List.of(record(country)));
+            fail("The append of " + country + " should have failed");
+        } catch (SaveCardsException expected) {
+            // The card is reported as not saved
+        }
+    }
+
+    private static WriteAheadLog open(Path path, FailingChannel[] files) throws IOException {
+        return new WriteAheadLog(path, CardCodec.header(), Durability.BATCH, 0, file -> {
+            files[0] = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND));
+            return files[0];
+        });
+    }
+
+    private static byte[] record(String country) {
+        return CardCodec.encode(new BanDelta(country, true, 0));
+    }
+
+    /**
+     * Reads the countries of all the records in the log, failing if any record is not whole
+     */
+    private static List<String> read(Path path) throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        file.position(CardCodec.HEADER_BYTES);
+        List<String> countries = new ArrayList<>();
+        while (file.hasRemaining()) {
+            int length   = file.getInt();
+            int checksum = file.getInt();
+            assertTrue("The record at byte " + file.position() + " was cut short", length <= file.remaining());
+            assertEquals(checksum, CardCodec.checksum(file, length));
+            ByteBuffer payload = file.slice(file.position(), length);
+            file.position(file.position() + length);
+            byte type = payload.get();
+            countries.add(CardCodec.decodeBanDelta(type, payload).getCountry());
+        }
+        return countries;
+    }
+
+    /**
+     * A file channel that can be made to fail its syncs, its writes part of the way through, its truncates and its close
+     */
+    private static class FailingChannel extends FileChannel {
+        private final FileChannel file;
+
+        volatile boolean failForce    = false;
+        volatile boolean failTruncate = false;
+        volatile boolean failClose    = false;
+        volatile int failWriteAfter   = -1;
+
+        FailingChannel(FileChannel file) {
+            this.file = file;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+            if (failWriteAfter < 0) {
+                return file.write(sources, offset, length);
+            }
+            ByteBuffer first = sources[offset];
+            file.write(first.slice(first.position(), Math.min(failWriteAfter, first.remaining())));
+            throw new IOException("The disk is full.");
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failForce) {
+                throw new IOException("The disk could not be synced.");
+            }
+            file.force(metaData);
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            if (failTruncate) {
+                throw new IOException("The file could not be truncated.");
+            }
+            file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            return file.write(source);
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            return file.read(destination);
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length) throws IOException {
+            return file.read(destinations, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return file.position();
+        }
+
+        @Override
+        public FileChannel position(long position) throws IOException {
+            file.position(position);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+            return file.transferFrom(source, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position) throws IOException {
+            return file.read(destination, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) throws IOException {
+            return file.write(source, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return file.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            file.close();
+            if (failClose) {
+                throw new IOException("The file could not be closed.");
+            }
+        }
+    }
+}
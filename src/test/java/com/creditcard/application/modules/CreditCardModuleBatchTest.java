@@ -0,0 +1,126 @@
+package com.creditcard.application.modules;
+
+import com.creditcard.application.datahandler.BinCache;
+import com.creditcard.application.datahandler.CoolTempDatabase;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.exceptions.BatchTooLargeException;
+import com.creditcard.application.models.responses.BatchResponse;
+import com.creditcard.application.models.responses.BatchResult;
+import com.creditcard.application.models.responses.Rejection;
+import com.creditcard.application.models.responses.ResponseError;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import spark.Request;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every card of a batch gets a result of its own, whatever else is in the batch
+ */
+public class CreditCardModuleBatchTest {
+
+    // A Visa card from Ghana, a Mastercard from Kenya, which is banned, and a Visa card of a BIN that is unknown
+    private static final String GHANA   = "4000 0000 0000 0002";
+    private static final String KENYA   = "5100 0000 0000 0008";
+    private static final String UNKNOWN = "4111 1111 1111 1111";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ErrorHandler errorHandler = new ErrorHandler();
+    private CreditCardModule module;
+
+    @Before
+    public void setUp() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Files.writeString(directory.resolve("banned-countries.txt"), "");
+        CoolTempDatabase database = new CoolTempDatabase(new FileModule(1, directory));
+        database.banCountries(List.of("Kenya"));
+
+        Map<String, String> countries = Map.of("400000000", "Ghana", "510000000", "Kenya");
+        module = new CreditCardModule(database, new BinCache(100, 60_000, 60_000), bin -> {
+            if (!countries.containsKey(bin)) {
+                return null;
+            }
+            Country country = new Country();
+            country.setName(countries.get(bin));
+            CardResponse details = new CardResponse();
+            details.setCountry(country);
+            return details;
+        });
+    }
+
+    @Test
+    public void aBatchOverTheLimitIsRefusedWithTheLimit() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i <= CreditCardModule.MAX_BATCH_SIZE; i++) {
+            body.append("{\"cardHolder\":\"Holder\",\"cardNumber\":\"").append(GHANA).append("\"}\n");
+        }
+
+        BatchTooLargeException ex = assertThrows(BatchTooLargeException.class,
+                () -> module.insertCreditCards(request(body.toString())));
+        ResponseError error       = errorHandler.handleException(ex);
+        assertEquals(SC_REQUEST_ENTITY_TOO_LARGE, error.getStatusCode());
+        assertTrue(error.getError(), error.getError().contains(String.valueOf(CreditCardModule.MAX_BATCH_SIZE)));
+    }
+
+    @Test
+    public void nullCardsAndNumbersOnlyRejectThemselves() throws Exception {
+        BatchResponse response = module.insertCreditCards(request(
+                "[null, {\"cardHolder\":\"No number\"}, {\"cardHolder\":\"Holder\",\"cardNumber\":\"" + GHANA + "\"}]"));
+
+        assertEquals(1, response.getAccepted());
+        assertRejected(response.getResults().get(0), Rejection.INVALID_NUMBER);
+        assertRejected(response.getResults().get(1), Rejection.INVALID_NUMBER);
+        assertEquals(SC_OK, response.getResults().get(2).getStatusCode());
+        assertNotNull(response.getResults().get(2).getCard());
+    }
+
+    @Test
+    public void aRepeatedCardIsOnlyADuplicateOfACopyThatWasAccepted() throws Exception {
+        StringBuilder body = new StringBuilder("[");
+        for (String number : new String[]{KENYA, KENYA, UNKNOWN, UNKNOWN, GHANA, GHANA}) {
+            body.append(body.length() > 1 ? "," : "").append("{\"cardHolder\":\"Holder\",\"cardNumber\":\"")
+                    .append(number).append("\"}");
+        }
+        List<BatchResult> results = module.insertCreditCards(request(body.append("]").toString())).getResults();
+
+        assertRejected(results.get(0), Rejection.BANNED);
+        assertRejected(results.get(1), Rejection.BANNED);
+        assertRejected(results.get(2), Rejection.UNKNOWN_BIN);
+        assertRejected(results.get(3), Rejection.UNKNOWN_BIN);
+        assertEquals(SC_OK, results.get(4).getStatusCode());
+        assertRejected(results.get(5), Rejection.DUPLICATE);
+    }
+
+    private void assertRejected(BatchResult result, Rejection rejection) {
+        assertEquals(errorHandler.handleRejection(rejection), result.getError());
+    }
+
+    /**
+     * A request with only a body, which is all that a batch import reads
+     */
+    private static Request request(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return new Request() {
+            @Override
+            public byte[] bodyAsBytes() {
+                return bytes;
+            }
+        };
+    }
+}
@@ -0,0 +1,189 @@
+package com.creditcard.application.modules;
+
+import com.creditcard.application.datahandler.CardCodec;
+import com.creditcard.application.datahandler.JsonCodec;
+import com.creditcard.application.models.cards.CreditCard;
+import com.creditcard.application.models.exceptions.LoadCardsException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a torn write at the end of the active segment is removed when loading, while damage anywhere else fails
+ * the load and leaves the file as it was, and that the old json cards are migrated in order
+ */
+public class FileModuleLoadTest {
+
+    private static final int CARDS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileModule fileModule;
+    private List<CreditCard> cards;
+    private List<byte[]> records;
+
+    @Before
+    public void setUp() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Files.writeString(directory.resolve("banned-countries.txt"), "");
+        fileModule = new FileModule(2, directory);
+        cards      = new ArrayList<>();
+        records    = new ArrayList<>();
+        for (int i = 0; i < CARDS; i++) {
+            CreditCard card = new CreditCard();
+            card.setId(UUID.randomUUID());
+            card.setCardNumber(String.valueOf(4000_0000_0000_0000L + i));
+            card.setCardHolder("Holder " + i);
+            cards.add(card);
+            records.add(CardCodec.encode(card, CardCodec.NO_DETAILS));
+        }
+    }
+
+    @Test
+    public void aWholeSegmentLoadsEveryCardInOrder() throws Exception {
+        write(1, segment(CARDS));
+        assertEquals(cards, load());
+    }
+
+    @Test
+    public void aRecordCutShortAtTheEndIsRemoved() throws Exception {
+        byte[] whole = segment(CARDS - 1);
+        byte[] torn  = Arrays.copyOf(segment(CARDS), whole.length + records.get(CARDS - 1).length / 2);
+        write(1, torn);
+
+        assertEquals(cards.subList(0, CARDS - 1), load());
+        assertArrayEquals(whole, read(1));
+    }
+
+    @Test
+    public void aFrameCutShortAtTheEndIsRemoved() throws Exception {
+        byte[] whole = segment(CARDS - 1);
+        write(1, Arrays.copyOf(segment(CARDS), whole.length + CardCodec.FRAME_BYTES / 2));
+
+        assertEquals(cards.subList(0, CARDS - 1), load());
+        assertArrayEquals(whole, read(1));
+    }
+
+    @Test
+    public void aLastRecordThatFailsItsChecksumIsRemoved() throws Exception {
+        byte[] whole   = segment(CARDS - 1);
+        byte[] damaged = segment(CARDS);
+        damaged[damaged.length - 1] ^= 1;
+        write(1, damaged);
+
+        assertEquals(cards.subList(0, CARDS - 1), load());
+        assertArrayEquals(whole, read(1));
+    }
+
+    @Test
+    public void aDamagedLengthInTheMiddleFailsTheLoad() throws Exception {
+        byte[] damaged = segment(CARDS);
+        ByteBuffer.wrap(damaged).putInt(offset(2), Integer.MAX_VALUE);
+        write(1, damaged);
+
+        assertCorrupted(1, damaged);
+    }
+
+    @Test
+    public void aDamagedLengthThatFitsInTheFileFailsTheLoad() throws Exception {
+        byte[] damaged = segment(CARDS);
+        int length     = ByteBuffer.wrap(damaged).getInt(offset(1));
+        ByteBuffer.wrap(damaged).putInt(offset(1), length + 3);
+        write(1, damaged);
+
+        assertCorrupted(1, damaged);
+    }
+
+    @Test
+    public void aDamagedPayloadInTheMiddleFailsTheLoad() throws Exception {
+        byte[] damaged = segment(CARDS);
+        damaged[offset(3) - 1] ^= 1;
+        write(1, damaged);
+
+        assertCorrupted(1, damaged);
+    }
+
+    @Test
+    public void aTornWriteInAnOlderSegmentFailsTheLoad() throws Exception {
+        byte[] torn = Arrays.copyOf(segment(CARDS), segment(CARDS).length - 3);
+        write(1, torn);
+        write(2, segment(0));
+
+        assertCorrupted(1, torn);
+    }
+
+    @Test
+    public void theOldJsonCardsAreMigratedInTheOrderOfTheFile() throws Exception {
+        // Enough cards for the file to be split into several chunks that are parsed in parallel
+        List<CreditCard> legacy = new ArrayList<>();
+        StringBuilder json      = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            CreditCard card = new CreditCard();
+            card.setId(UUID.randomUUID());
+            card.setCardNumber(String.valueOf(4000_0000_0000_0000L + i));
+            card.setCardHolder("Holder ~ " + i);
+            legacy.add(card);
+            json.append(JsonCodec.toJson(card)).append('~');
+        }
+        Path file = folder.getRoot().toPath().resolve(FileModule.LEGACY_CARDS_FILE);
+        Files.writeString(file, json);
+        assertTrue(Files.size(file) > 2 << 20);
+
+        assertEquals(legacy, load());
+    }
+
+    private List<CreditCard> load() throws Exception {
+        Map<UUID, CreditCard> loaded = fileModule.loadCards(delta -> {
+        });
+        return new ArrayList<>(loaded.values());
+    }
+
+    private void assertCorrupted(long segment, byte[] contents) throws Exception {
+        LoadCardsException ex = assertThrows(LoadCardsException.class, this::load);
+        String fileName       = fileModule.resource(FileModule.SEGMENT_PREFIX, segment).getFileName().toString();
+        assertTrue(ex.getMessage(), ex.getMessage().contains(fileName));
+        assertArrayEquals(contents, read(segment));
+    }
+
+    /**
+     * The position of the record of the card in a segment
+     */
+    private int offset(int card) {
+        return segment(card).length;
+    }
+
+    /**
+     * A segment with the first cards in it
+     */
+    private byte[] segment(int count) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.writeBytes(CardCodec.header());
+        records.subList(0, count).forEach(bytes::writeBytes);
+        return bytes.toByteArray();
+    }
+
+    private void write(long segment, byte[] contents) throws Exception {
+        Files.write(fileModule.resource(FileModule.SEGMENT_PREFIX, segment), contents);
+    }
+
+    private byte[] read(long segment) throws Exception {
+        return Files.readAllBytes(fileModule.resource(FileModule.SEGMENT_PREFIX, segment));
+    }
+}
@@ -0,0 +1,96 @@
+package com.creditcard.benchmarks;
+
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.cards.CreditCard;
+import com.creditcard.application.modules.FileModule;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Measures how many cards per second the startup load reads with 1, 2, 4 and all the cores. A snapshot of generated
+ * cards is written to a temporary directory once and then loaded a few times with each number of threads, of which the
+ * fastest load is reported.
+ * <p>
+ * Arguments: the number of cards (1000000 by default) and the number of loads per thread count (3 by default).
+ */
+public class CardLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int cards  = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int cores  = Runtime.getRuntime().availableProcessors();
+
+        Path directory = Files.createTempDirectory("card-load");
+        Files.writeString(directory.resolve("banned-countries.txt"), "");
+        new FileModule(1, directory).saveSnapshot(1, () -> generate(cards), List.of());
+        System.out.printf("[INFO] - Wrote %d cards (%d bytes) to %s%n", cards,
+                Files.size(new FileModule(1, directory).resource(FileModule.SNAPSHOT_PREFIX, 1)), directory);
+
+        TreeSet<Integer> threadCounts = new TreeSet<>(List.of(1, 2, 4, cores));
+        List<String> results          = new ArrayList<>();
+        for (int threads : threadCounts) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                FileModule fileModule = new FileModule(threads, directory);
+                long start            = System.nanoTime();
+                int loaded            = fileModule.loadCards(delta -> {
+                }).size();
+                best                  = Math.min(best, System.nanoTime() - start);
+                if (loaded != cards) {
+                    throw new IllegalStateException("Loaded " + loaded + " of the " + cards + " cards.");
+                }
+            }
+            results.add(String.format("%2d threads: %,12.0f cards/s (%d ms)", threads, cards * 1e9 / best,
+                    best / 1_000_000));
+        }
+        Benchmarks.deleteDirectory(directory);
+
+        System.out.printf("%nCard load, best of %d, on %d cores%n", rounds, cores);
+        results.forEach(System.out::println);
+    }
+
+    /**
+     * Generates the cards lazily, so they never all have to be kept in memory. The cards share 500 different details,
+     * as the cards of the same BIN do.
+     */
+    private static Iterator<CreditCard> generate(int cards) {
+        CardResponse[] details = new CardResponse[500];
+        for (int i = 0; i < details.length; i++) {
+            Country country = new Country();
+            country.setName("Country " + i % 50);
+            country.setAlpha2("C" + i % 50);
+            details[i] = new CardResponse();
+            details[i].setScheme("visa");
+            details[i].setBrand("Brand " + i % 20);
+            details[i].setCountry(country);
+            details[i].setBank(Map.of("name", "Bank " + i));
+        }
+        return new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < cards;
+            }
+
+            @Override
+            public CreditCard next() {
+                CreditCard card = new CreditCard();
+                card.setId(UUID.randomUUID());
+                card.setCardNumber(String.valueOf(4000_0000_0000_0000L + next));
+                card.setCardHolder("Holder " + next);
+                card.setDetails(details[next % details.length]);
+                next++;
+                return card;
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package com.creditcard.benchmarks;
+
+import com.creditcard.application.datahandler.CardOrder;
+import com.creditcard.application.datahandler.CardStorage;
+import com.creditcard.application.datahandler.PackedCardStorage;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.cards.CreditCard;
+
+import java.lang.ref.Reference;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Measures the heap that every card takes, in the maps and sets that the database used to keep its cards in and in the
+ * packed storage that replaced them. The holder names are made before the first measurement and all the cards share
+ * the same details, as the cards of the same BIN do, so only what the database keeps for every card is counted.
+ * <p>
+ * Run it with a heap that fits the maps, e.g. {@code -Xmx2g} for the default number of cards.
+ * <p>
+ * Arguments: the number of cards (1000000 by default).
+ */
+public class CardMemoryBenchmark {
+
+    public static void main(String[] args) {
+        int cards = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        String[] holders = new String[cards];
+        for (int i = 0; i < cards; i++) {
+            holders[i] = "Holder " + i;
+        }
+        Country country = new Country();
+        country.setName("Ghana");
+        CardResponse details = new CardResponse();
+        details.setCountry(country);
+
+        long start    = usedHeap();
+        Object maps   = fillMaps(cards, holders, details);
+        double before = (usedHeap() - start) / (double) cards;
+        // Keeps the maps reachable until they have been measured, and the holder names until the end
+        Reference.reachabilityFence(maps);
+
+        start          = usedHeap();
+        Object storage = fillStorage(cards, holders, details);
+        double after   = (usedHeap() - start) / (double) cards;
+        Reference.reachabilityFence(storage);
+        Reference.reachabilityFence(holders);
+
+        System.out.printf("%nHeap per card for %d cards, holder names not counted%n", cards);
+        System.out.printf("maps:    %6.1f bytes%n", before);
+        System.out.printf("storage: %6.1f bytes%n", after);
+    }
+
+    /**
+     * Adds the cards to the maps and sets that the database kept before the packed storage
+     */
+    private static Object fillMaps(int cards, String[] holders, CardResponse details) {
+        Map<UUID, CreditCard> byId          = new ConcurrentHashMap<>(cards);
+        NavigableSet<UUID> sortedIds        = new ConcurrentSkipListSet<>();
+        NavigableMap<Long, UUID> insertions = new ConcurrentSkipListMap<>();
+        Map<UUID, Long> insertionPositions  = new ConcurrentHashMap<>(cards);
+        Map<String, UUID> cardNumbers       = new ConcurrentHashMap<>(cards);
+        for (int i = 0; i < cards; i++) {
+            CreditCard card = card(i, holders[i], details);
+            byId.put(card.getId(), card);
+            sortedIds.add(card.getId());
+            insertions.put((long) i, card.getId());
+            insertionPositions.put(card.getId(), (long) i);
+            cardNumbers.put(card.getCardNumber(), card.getId());
+        }
+        return new Object[]{byId, sortedIds, insertions, insertionPositions, cardNumbers};
+    }
+
+    /**
+     * Adds the cards to the packed storage, and walks the id order once so the sorted slots are counted too
+     */
+    private static Object fillStorage(int cards, String[] holders, CardResponse details) {
+        CardStorage storage = new PackedCardStorage(cards);
+        for (int i = 0; i < cards; i++) {
+            storage.add(card(i, holders[i], details));
+        }
+        storage.iterator(null, CardOrder.ID).hasNext();
+        return storage;
+    }
+
+    private static CreditCard card(int index, String holder, CardResponse details) {
+        CreditCard card = new CreditCard();
+        card.setId(UUID.randomUUID());
+        card.setCardNumber(String.valueOf(4000_0000_0000_0000L + index * 7L));
+        card.setCardHolder(holder);
+        card.setDetails(details);
+        return card;
+    }
+
+    /**
+     * The heap in use once the garbage collector has run a few times
+     */
+    private static long usedHeap() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
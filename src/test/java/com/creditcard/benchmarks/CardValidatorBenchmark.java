@@ -0,0 +1,59 @@
+package com.creditcard.benchmarks;
+
+import com.creditcard.application.modules.CardValidator;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the time and the memory allocated to check a card number and find its BIN, with the String operations the
+ * card numbers used to be checked with and with the CardValidator. The old checks only took the spaces out, cut off the
+ * BIN and compared the length, while the CardValidator also runs the Luhn checksum and the scheme check. Only valid
+ * numbers are used, as the old checks threw on anything shorter than a BIN.
+ * <p>
+ * Arguments: the number of checks per round (5000000 by default) and the number of rounds (5 by default).
+ */
+public class CardValidatorBenchmark {
+
+    private static final String[] NUMBERS = {
+            "4111 1111 1111 1111",
+            "5555555555554444",
+            "6011 1111 1111 1117",
+            "4000 0000 0000 0002"
+    };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int checks = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.printf("Check a card number and find its BIN, %d checks per round%n", checks);
+        long sink = 0;
+        for (int round = 1; round <= rounds; round++) {
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start     = System.nanoTime();
+            for (int i = 0; i < checks; i++) {
+                String number = NUMBERS[i & 3].replace(" ", "");
+                String bin    = number.substring(0, 9);
+                sink         += number.length() == 16 ? bin.length() : 0;
+            }
+            long strings     = System.nanoTime() - start;
+            long stringBytes = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+
+            allocated = THREADS.getCurrentThreadAllocatedBytes();
+            start     = System.nanoTime();
+            for (int i = 0; i < checks; i++) {
+                long digits = CardValidator.parse(NUMBERS[i & 3]);
+                sink       += CardValidator.check(digits) == null ? CardValidator.binOf(digits).length() : 0;
+            }
+            long validator      = System.nanoTime() - start;
+            long validatorBytes = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+
+            System.out.printf("Round %d: strings %6.1f ns %5.0f bytes, validator %6.1f ns %5.0f bytes%n", round,
+                    (double) strings / checks, (double) stringBytes / checks, (double) validator / checks,
+                    (double) validatorBytes / checks);
+        }
+        System.out.println("(" + sink + ")");
+    }
+}
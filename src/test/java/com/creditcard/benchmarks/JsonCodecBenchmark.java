@@ -0,0 +1,73 @@
+package com.creditcard.benchmarks;
+
+import com.creditcard.application.datahandler.JsonCodec;
+import com.creditcard.application.models.cards.CardCreate;
+import com.creditcard.application.models.cards.CardResponse;
+import com.creditcard.application.models.cards.Country;
+import com.creditcard.application.models.cards.CreditCard;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Measures the time of writing a card and reading a new card request, which every request does, with a new
+ * ObjectMapper for every call as the application used to, and with the shared mapper and cached readers and writers of
+ * the JsonCodec. The first rounds warm up the JIT and are reported as well, so the cost of the first calls shows.
+ * <p>
+ * Arguments: the number of calls per round (20000 by default) and the number of rounds (5 by default).
+ */
+public class JsonCodecBenchmark {
+
+    private static final String BODY = "{\"cardHolder\":\"Ama Mensah\",\"cardNumber\":\"4000 0000 0000 0002\"}";
+
+    public static void main(String[] args) throws Exception {
+        int calls  = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        CreditCard card = card();
+
+        System.out.printf("Write a card and read a request, %d calls per round%n", calls);
+        for (int round = 1; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                ObjectMapper writer = new ObjectMapper();
+                writer.enable(SerializationFeature.INDENT_OUTPUT);
+                writer.writeValueAsString(card);
+                new ObjectMapper().readValue(BODY, CardCreate.class);
+            }
+            long perCall = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                JsonCodec.toJson(card);
+                JsonCodec.read(BODY, CardCreate.class);
+            }
+            long shared = System.nanoTime() - start;
+
+            System.out.printf("Round %d: new mapper per call %8.2f us, shared codec %6.2f us (%.0fx)%n", round,
+                    perCall / 1e3 / calls, shared / 1e3 / calls, (double) perCall / shared);
+        }
+    }
+
+    private static CreditCard card() {
+        Country country = new Country();
+        country.setName("Ghana");
+        country.setAlpha2("GH");
+
+        CardResponse details = new CardResponse();
+        details.setScheme("visa");
+        details.setType("debit");
+        details.setCountry(country);
+        details.setNumber(Map.of("length", 16, "luhn", true));
+        details.setBank(Map.of("name", "Bank of Ghana"));
+
+        CreditCard card = new CreditCard();
+        card.setId(UUID.randomUUID());
+        card.setCardNumber("4000000000000002");
+        card.setCardHolder("Ama Mensah");
+        card.setDetails(details);
+        return card;
+    }
+}
@@ -0,0 +1,123 @@
+package com.creditcard.benchmarks;
+
+import com.creditcard.application.datahandler.JsonCodec;
+import com.creditcard.application.models.exceptions.BannedCountryException;
+import com.creditcard.application.models.exceptions.DuplicateCardException;
+import com.creditcard.application.models.exceptions.InvalidCardException;
+import com.creditcard.application.models.exceptions.ObjectMapperException;
+import com.creditcard.application.models.responses.Rejection;
+import com.creditcard.application.modules.CardValidator;
+import com.creditcard.application.modules.ErrorHandler;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+/**
+ * Measures the time and the memory allocated to answer inserts of which 9 in 10 are rejected, as in a burst of fraud or
+ * replayed requests. The old way threw the exception of the rejection and built and serialised its error in the
+ * handler, while a rejection is now returned as an outcome and answered with its error that was serialised once. Both
+ * check the number with the CardValidator and look it up in the same sets, so only the handling of the rejection
+ * differs.
+ * <p>
+ * Arguments: the number of inserts per round (2000000 by default) and the number of rounds (5 by default).
+ */
+public class RejectionBenchmark {
+
+    private static final String ACCEPTED = "accepted";
+
+    // Invalid, failed checksum, unknown scheme, duplicate and banned, twice over apart from the one accepted card
+    private static final String[] NUMBERS = {
+            "41",
+            "4111 1111 1111 1112",
+            "0000 0000 0000 0000",
+            "5100 0000 0000 0008",
+            "4000 0000 0000 0002",
+            "41",
+            "4111 1111 1111 1112",
+            "5100 0000 0000 0008",
+            "4000 0000 0000 0002",
+            "5100 0000 0000 0107"
+    };
+
+    private static final Set<String> SAVED_NUMBERS = Set.of("5100000000000008");
+    private static final Set<String> BANNED_BINS   = Set.of("400000000");
+
+    private static final ErrorHandler HANDLER = new ErrorHandler();
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws ObjectMapperException {
+        int inserts = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds  = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.printf("Answer inserts of which 9 in 10 are rejected, %d inserts per round%n", inserts);
+        long sink = 0;
+        for (int round = 1; round <= rounds; round++) {
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start     = System.nanoTime();
+            for (int i = 0; i < inserts; i++) {
+                sink += throwRejection(NUMBERS[i % NUMBERS.length]).length();
+            }
+            long exceptions     = System.nanoTime() - start;
+            long exceptionBytes = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+
+            allocated = THREADS.getCurrentThreadAllocatedBytes();
+            start     = System.nanoTime();
+            for (int i = 0; i < inserts; i++) {
+                sink += returnRejection(NUMBERS[i % NUMBERS.length]).length();
+            }
+            long outcomes     = System.nanoTime() - start;
+            long outcomeBytes = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+
+            System.out.printf("Round %d: exceptions %6.1f ns %5.0f bytes, outcomes %6.1f ns %5.0f bytes%n", round,
+                    (double) exceptions / inserts, (double) exceptionBytes / inserts, (double) outcomes / inserts,
+                    (double) outcomeBytes / inserts);
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    /**
+     * The old way, which throws the exception of the rejection and has the handler build and serialise its error
+     */
+    private static String throwRejection(String number) throws ObjectMapperException {
+        try {
+            Rejection rejection = rejectionOf(number);
+            if (rejection == Rejection.DUPLICATE) {
+                throw new DuplicateCardException();
+            } else if (rejection == Rejection.BANNED) {
+                throw new BannedCountryException(rejection.getMessage());
+            } else if (rejection != null) {
+                throw new InvalidCardException(rejection.getMessage());
+            }
+            return ACCEPTED;
+        } catch (Exception ex) {
+            return JsonCodec.toJson(HANDLER.handleException(ex));
+        }
+    }
+
+    /**
+     * The way the inserts are answered now, with the rejection as an outcome and its error serialised up front
+     */
+    private static String returnRejection(String number) {
+        Rejection rejection = rejectionOf(number);
+        if (rejection == null) {
+            return ACCEPTED;
+        }
+        HANDLER.handleRejection(rejection);
+        return HANDLER.rejectionJson(rejection);
+    }
+
+    private static Rejection rejectionOf(String number) {
+        long digits         = CardValidator.parse(number);
+        Rejection rejection = CardValidator.check(digits);
+        if (rejection != null) {
+            return rejection;
+        } else if (SAVED_NUMBERS.contains(CardValidator.toNumber(digits))) {
+            return Rejection.DUPLICATE;
+        } else if (BANNED_BINS.contains(CardValidator.binOf(digits))) {
+            return Rejection.BANNED;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,200 @@
+package com.creditcard.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the platform thread and the virtual thread modes of the server on throughput and p99 latency. For each mode
+ * the server is started in its own JVM and temporary directory, with its BIN lookups going to a stub in this JVM that
+ * answers after a delay, as the real lookup service does. Every request inserts a card with a BIN of its own, so every
+ * request blocks on a lookup while it holds its request thread.
+ * <p>
+ * The server is started with the same JVM options as the benchmark, so run it with {@code --enable-preview} like the
+ * application. Nothing else may be listening on port 4567.
+ * <p>
+ * Arguments: the number of requests per concurrency level (2000 by default), the concurrency levels (50,200,500 by
+ * default) and the delay of the BIN lookups in milliseconds (200 by default).
+ */
+public class VirtualThreadLoadBenchmark {
+
+    private static final URI CARDS = URI.create("http://localhost:4567/api/v1/cards/");
+    private static final URI READY = URI.create("http://localhost:4567/api/v1/countries/ban/");
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    // Every card gets a BIN that no other card has, so none of the lookups are served from the BIN cache
+    private static final AtomicInteger NEXT_BIN = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int[] levels = Arrays.stream((args.length > 1 ? args[1] : "50,200,500").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long delay   = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+        if (isReady()) {
+            throw new IllegalStateException("Something is already listening on port 4567.");
+        }
+        HttpServer stub     = startStub(delay);
+        List<String> result = new ArrayList<>();
+        try {
+            for (boolean isVirtual : new boolean[]{false, true}) {
+                Path directory = Files.createTempDirectory("card-load");
+                Process server = startServer(directory, isVirtual, stub.getAddress().getPort());
+                try {
+                    for (int level : levels) {
+                        // A short warm up, so the first level is not the only one to pay for the JIT
+                        run(Math.min(level, requests), level);
+                        result.add(String.format("%-8s %11d %s", isVirtual ? "virtual" : "platform", level,
+                                run(requests, level)));
+                    }
+                } finally {
+                    server.destroy();
+                    server.waitFor(1, TimeUnit.MINUTES);
+                    Benchmarks.deleteDirectory(directory);
+                }
+            }
+        } finally {
+            stub.stop(0);
+        }
+
+        System.out.printf("%n%d inserts per level, BIN lookups take %dms, %d cores%n", requests, delay,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %11s %10s %8s %8s %7s%n", "mode", "concurrency", "req/s", "p50 ms", "p99 ms",
+                "errors");
+        result.forEach(System.out::println);
+    }
+
+    /**
+     * Inserts the cards with at most the given number of requests in flight
+     *
+     * @param requests    The number of cards to insert
+     * @param concurrency The number of requests in flight
+     * @return The throughput, the p50 and p99 latency and the failed requests
+     */
+    private static String run(int requests, int concurrency) throws InterruptedException {
+        long[] latencies     = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        Semaphore inFlight   = new Semaphore(concurrency);
+        CountDownLatch done  = new CountDownLatch(requests);
+        long start           = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int request        = i;
+            long sent          = System.nanoTime();
+            HttpRequest insert = HttpRequest.newBuilder(CARDS)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"cardHolder\":\"Load\",\"cardNumber\":\""
+                            + nextNumber() + "\"}"))
+                    .build();
+            CLIENT.sendAsync(insert, HttpResponse.BodyHandlers.discarding()).whenComplete((response, ex) -> {
+                latencies[request] = System.nanoTime() - sent;
+                if (ex != null || response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        return String.format("%10.0f %8d %8d %7d", requests / seconds, latencies[requests / 2] / 1_000_000,
+                latencies[(int) (requests * 0.99)] / 1_000_000, errors.get());
+    }
+
+    /**
+     * A Visa number with a BIN of its own and a valid check digit
+     */
+    private static String nextNumber() {
+        String number = String.format("4%08d000000", NEXT_BIN.getAndIncrement());
+        int sum       = 0;
+        for (int i = 0; i < number.length(); i++) {
+            int digit = number.charAt(number.length() - 1 - i) - '0';
+            if (i % 2 == 0) {
+                digit *= 2;
+                digit  = digit > 9 ? digit - 9 : digit;
+            }
+            sum += digit;
+        }
+        return number + (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Starts a BIN lookup service that answers every BIN with a Visa card from Kenya after the delay
+     */
+    private static HttpServer startStub(long delayMillis) throws IOException {
+        byte[] body     = "{\"scheme\":\"visa\",\"country\":{\"name\":\"Kenya\"}}".getBytes(StandardCharsets.UTF_8);
+        HttpServer stub = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+        stub.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stub.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.start();
+        return stub;
+    }
+
+    /**
+     * Starts the server in its own JVM, in a directory of its own, and waits until it answers
+     */
+    private static Process startServer(Path directory, boolean isVirtual, int stubPort) throws Exception {
+        Path resources = Files.createDirectories(directory.resolve("src/main/resources"));
+        Files.writeString(resources.resolve("banned-countries.txt"), "");
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(List.of("-Dserver.virtualThreads=" + isVirtual, "-Dbin.url=http://localhost:" + stubPort + "/",
+                "-Dcards.durability=none", "-cp", System.getProperty("java.class.path"), "com.creditcard.Main"));
+        Process server = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (!isReady()) {
+            if (!server.isAlive() || System.currentTimeMillis() > deadline) {
+                server.destroy();
+                throw new IllegalStateException("The server did not start:\n"
+                        + Files.readString(directory.resolve("server.log")));
+            }
+            Thread.sleep(200);
+        }
+        return server;
+    }
+
+    private static boolean isReady() throws InterruptedException {
+        try {
+            return CLIENT.send(HttpRequest.newBuilder(READY).build(), HttpResponse.BodyHandlers.discarding())
+                    .statusCode() == 200;
+        } catch (IOException ex) {
+            // Nothing is listening yet
+            return false;
+        }
+    }
+}